@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the throughput and per-chunk latency of {@link Pipe}.
+ * <p>
+ * The throughput benchmark pipes {@link #SIZE} bytes per operation, either
+ * from memory or through an operating system pipe. The latency benchmark
+ * measures the time from a chunk is written into an operating system pipe
+ * until a running {@link Pipe} has written it to its output.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PipeBenchmark {
+
+    /**
+     * The number of bytes piped per throughput operation.
+     */
+    public static final int SIZE = 1 << 22;
+
+    @State(Scope.Thread)
+    public static class Throughput {
+        @Param({"1024", "8192", "65536"})
+        public int bufsize;
+
+        @Param({"memory", "os"})
+        public String source;
+
+        byte[] data;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            data = new byte[SIZE];
+            new Random(42).nextBytes(data);
+        }
+
+        InputStream newSource() throws IOException {
+            if ("memory".equals(source)) {
+                return new ByteArrayInputStream(data);
+            }
+            final java.nio.channels.Pipe os = java.nio.channels.Pipe.open();
+            Thread writer = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            writeFully(os.sink(), ByteBuffer.wrap(data));
+                            os.sink().close();
+                        }
+                        catch (IOException ioe) {
+                            throw new RuntimeException(ioe);
+                        }
+                    }
+                });
+            writer.setDaemon(true);
+            writer.start();
+            return Channels.newInputStream(os.source());
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long throughput(Throughput state) throws Exception {
+        InputStream in = state.newSource();
+        CountingOutputStream out = new CountingOutputStream();
+        Pipe p = new Pipe(in, out, state.bufsize);
+        p.start();
+        p.join();
+        in.close();
+        return out.count;
+    }
+
+    @State(Scope.Thread)
+    public static class Latency {
+        @Param({"1024", "8192", "65536"})
+        public int bufsize;
+
+        @Param({"64", "1024"})
+        public int chunk;
+
+        java.nio.channels.Pipe os;
+        ByteBuffer data;
+        CountingOutputStream out;
+        Pipe pipe;
+        long expected;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            os = java.nio.channels.Pipe.open();
+            data = ByteBuffer.allocate(chunk);
+            out = new CountingOutputStream();
+            pipe = new Pipe(Channels.newInputStream(os.source()), out, bufsize);
+            pipe.start();
+            expected = 0;
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            os.sink().close();
+            pipe.join();
+            os.source().close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long chunkLatency(Latency state) throws Exception {
+        state.data.clear();
+        writeFully(state.os.sink(), state.data);
+        state.expected += state.chunk;
+        while (state.out.count < state.expected) {
+            Thread.yield();
+        }
+        return state.out.count;
+    }
+
+    static void writeFully(WritableByteChannel ch, ByteBuffer buf)
+        throws IOException {
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+
+    static class CountingOutputStream extends OutputStream {
+        volatile long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
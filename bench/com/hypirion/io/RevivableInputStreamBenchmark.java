@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the hand-off latency between the reader thread of a {@link
+ * RevivableInputStream} and its consumer, and for the cost of killing and
+ * resurrecting it. The underlying stream never blocks, so the benchmarks
+ * measure the overhead of the revivable input stream itself.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RevivableInputStreamBenchmark {
+
+    @Param({"64", "1024", "8192"})
+    public int len;
+
+    @Param({"false", "true"})
+    public boolean readAhead;
+
+    RevivableInputStream in;
+    byte[] buf;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        in = new RevivableInputStream(new ZeroInputStream(),
+                                      RevivableInputStream.DEFAULT_BUFFER_SIZE,
+                                      readAhead);
+        buf = new byte[len];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        in.close();
+    }
+
+    @Benchmark
+    public int read() throws IOException {
+        return in.read(buf, 0, len);
+    }
+
+    @Benchmark
+    public int killAndResurrect() throws IOException {
+        in.kill();
+        int res = in.read(buf, 0, len);
+        in.resurrect();
+        return res;
+    }
+
+    static class ZeroInputStream extends InputStream {
+        @Override
+        public int read() {
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return len;
+        }
+    }
+}
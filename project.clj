@@ -5,9 +5,11 @@
             :url "http://www.eclipse.org/legal/epl-v10.html"}
   :source-paths []
   :java-source-paths ["src"]
-  :javac-options ["-target" "1.6" "-source" "1.6" "-Xlint:-options"]
+  :javac-options ["-target" "1.7" "-source" "1.7" "-Xlint:-options"]
   :deploy-branches ["stable"]
   :aliases {"test" "junit"
+            "bench" ["with-profile" "+bench"
+                     "run" "-m" "org.openjdk.jmh.Main"]
             "javadoc" ["shell" "javadoc" "-d" "0.4.0-SNAPSHOT"
                        "-sourcepath" "src/" "com.hypirion.io"]}
   :plugins [[lein-shell "0.2.0"]
@@ -16,4 +18,8 @@
                    :junit ["test"]
                    :dependencies [[junit/junit "4.11"]
                                    [org.apache.commons/commons-lang3 "3.1"]
-                                   [commons-io/commons-io "2.4"]]}})
+                                   [commons-io/commons-io "2.4"]]}
+             :bench {:java-source-paths ["bench"]
+                     :dependencies [[org.openjdk.jmh/jmh-core "1.21"]
+                                    [org.openjdk.jmh/jmh-generator-annprocess
+                                     "1.21"]]}})
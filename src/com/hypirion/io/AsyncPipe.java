@@ -0,0 +1,584 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+
+package com.hypirion.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+
+/**
+ * An AsyncPipe is a pipe between asynchronous channels, which does not need a
+ * thread of its own. Every read is chained to a write, and every write to the
+ * next read, through completion handlers which run on the threads of the
+ * channels' {@link java.nio.channels.AsynchronousChannelGroup}. A small
+ * channel group can therefore serve thousands of async pipes, e.g. relays
+ * between sockets or from files to sockets.
+ * <p>
+ * Either end of an async pipe may be an {@link AsynchronousByteChannel}, such
+ * as a socket, or an {@link AsynchronousFileChannel}, which is read from or
+ * written to from a given position and onwards. Data is piped through a
+ * single buffer from a direct buffer pool by default.
+ * <p>
+ * An async pipe is started, paused, stopped and joined just like a {@link
+ * Pipe}: Pausing or stopping takes effect once the current read and its write
+ * have completed, and stopping a pipe makes it finish. A pipe also finishes
+ * when the input channel reaches its end, or when a read or write fails. An
+ * async pipe does not close any of its channels.
+ *
+ * @author Jean Niklas L'orange
+ * @see Pipe
+ * @since <code>com.hypirion.io 0.4.0</code>
+ */
+public class AsyncPipe {
+
+    private static final BufferPool DIRECT_POOL =
+        new BufferPool(BufferPool.DEFAULT_MAX_POOLED, true, false);
+
+    private final Endpoint in, out;
+    private final int bufsize;
+    private final BufferPool pool;
+    private final Reader reader;
+    private final Writer writer;
+    private final Object lock;
+    private ByteBuffer buffer;
+    private volatile Throwable failure;
+    private boolean started, running, stopped, inFlight, finishing, finished;
+
+    // Statistics. Only written by the completion handlers, which never run
+    // concurrently, and lastActivity is in nanoTime.
+    private volatile long transferred, reads, readNanos, writeNanos,
+        lastActivity;
+    private long opStart;
+
+    /**
+     * Creates a new async pipe, which pipes data from the channel
+     * <code>in</code> to the channel <code>out</code> once started.
+     *
+     * @param in the channel to read from.
+     * @param out the channel to write to.
+     */
+    public AsyncPipe(AsynchronousByteChannel in, AsynchronousByteChannel out) {
+        this(in, out, Pipe.DEFAULT_BUFFER_SIZE, DIRECT_POOL);
+    }
+
+    /**
+     * Creates a new async pipe with buffer size <code>bufsize</code>, which
+     * pipes data from the channel <code>in</code> to the channel
+     * <code>out</code> once started. The buffer is taken from
+     * <code>pool</code>.
+     *
+     * @param in the channel to read from.
+     * @param out the channel to write to.
+     * @param bufsize the buffer size of the pipe.
+     * @param pool the buffer pool to take the buffer from.
+     */
+    public AsyncPipe(AsynchronousByteChannel in, AsynchronousByteChannel out,
+                     int bufsize, BufferPool pool) {
+        this(new ByteEndpoint(in), new ByteEndpoint(out), bufsize, pool);
+    }
+
+    /**
+     * Creates a new async pipe, which pipes data from the file channel
+     * <code>in</code>, starting at <code>position</code>, to the channel
+     * <code>out</code> once started.
+     *
+     * @param in the file channel to read from.
+     * @param position the position in the file to start reading from.
+     * @param out the channel to write to.
+     */
+    public AsyncPipe(AsynchronousFileChannel in, long position,
+                     AsynchronousByteChannel out) {
+        this(in, position, out, Pipe.DEFAULT_BUFFER_SIZE, DIRECT_POOL);
+    }
+
+    /**
+     * Creates a new async pipe with buffer size <code>bufsize</code>, which
+     * pipes data from the file channel <code>in</code>, starting at
+     * <code>position</code>, to the channel <code>out</code> once started. The
+     * buffer is taken from <code>pool</code>.
+     *
+     * @param in the file channel to read from.
+     * @param position the position in the file to start reading from.
+     * @param out the channel to write to.
+     * @param bufsize the buffer size of the pipe.
+     * @param pool the buffer pool to take the buffer from.
+     */
+    public AsyncPipe(AsynchronousFileChannel in, long position,
+                     AsynchronousByteChannel out, int bufsize,
+                     BufferPool pool) {
+        this(new FileEndpoint(in, position), new ByteEndpoint(out), bufsize,
+             pool);
+    }
+
+    /**
+     * Creates a new async pipe, which pipes data from the channel
+     * <code>in</code> to the file channel <code>out</code>, starting at
+     * <code>position</code>, once started.
+     *
+     * @param in the channel to read from.
+     * @param out the file channel to write to.
+     * @param position the position in the file to start writing at.
+     */
+    public AsyncPipe(AsynchronousByteChannel in, AsynchronousFileChannel out,
+                     long position) {
+        this(in, out, position, Pipe.DEFAULT_BUFFER_SIZE, DIRECT_POOL);
+    }
+
+    /**
+     * Creates a new async pipe with buffer size <code>bufsize</code>, which
+     * pipes data from the channel <code>in</code> to the file channel
+     * <code>out</code>, starting at <code>position</code>, once started. The
+     * buffer is taken from <code>pool</code>.
+     *
+     * @param in the channel to read from.
+     * @param out the file channel to write to.
+     * @param position the position in the file to start writing at.
+     * @param bufsize the buffer size of the pipe.
+     * @param pool the buffer pool to take the buffer from.
+     */
+    public AsyncPipe(AsynchronousByteChannel in, AsynchronousFileChannel out,
+                     long position, int bufsize, BufferPool pool) {
+        this(new ByteEndpoint(in), new FileEndpoint(out, position), bufsize,
+             pool);
+    }
+
+    private AsyncPipe(Endpoint in, Endpoint out, int bufsize,
+                      BufferPool pool) {
+        if (bufsize <= 0) {
+            throw new IllegalArgumentException("bufsize must be positive");
+        }
+        if (pool == null) {
+            throw new NullPointerException("pool");
+        }
+        this.in = in;
+        this.out = out;
+        this.bufsize = bufsize;
+        this.pool = pool;
+        reader = new Reader();
+        writer = new Writer();
+        lock = new Object();
+        buffer = null;
+        failure = null;
+        started = false;
+        running = false;
+        stopped = false;
+        inFlight = false;
+        finishing = false;
+        finished = false;
+    }
+
+    /**
+     * Returns the current state of this pipe.
+     *
+     * @return the current state of this pipe.
+     */
+    public Pipe.State getState() {
+        synchronized (lock) {
+            if (finished) {
+                return Pipe.State.FINISHED;
+            }
+            if (stopped) {
+                return Pipe.State.STOPPING;
+            }
+            if (running) {
+                return Pipe.State.RUNNING;
+            }
+            return started ? Pipe.State.PAUSED : Pipe.State.NEW;
+        }
+    }
+
+    /**
+     * Returns a snapshot of the statistics of this pipe. The read and write
+     * times are the times from issuing a read or write until it completed.
+     *
+     * @return a snapshot of the statistics of this pipe.
+     */
+    public PipeStats getStats() {
+        long last = lastActivity;
+        if (last != 0) {
+            long agoMillis = (System.nanoTime() - last) / 1000000;
+            last = System.currentTimeMillis() - agoMillis;
+        }
+        return new PipeStats(getState(), transferred, reads, readNanos,
+                             writeNanos, last, bufsize);
+    }
+
+    /**
+     * Returns the exception which made this pipe fail, or <code>null</code> if
+     * the pipe has not failed.
+     *
+     * @return the exception which made this pipe fail, or <code>null</code>.
+     * @see Pipe#getFailure()
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Starts up this pipe. If this pipe has not yet been started or has been
+     * paused, this method will (re)start the pipe. When this pipe is stopped,
+     * this method will do nothing.
+     */
+    public void start() {
+        synchronized (lock) {
+            if (stopped) {
+                return;
+            }
+            running = true;
+            started = true;
+            if (inFlight) {
+                // The current operation will continue as it will see that
+                // we're running.
+                return;
+            }
+            inFlight = true;
+            if (buffer == null) {
+                buffer = pool.acquireBuffer(bufsize);
+            }
+        }
+        read();
+    }
+
+    /**
+     * Pauses this pipe. Will block until the current read and its write have
+     * completed.
+     *
+     * @exception InterruptedException if this thread is interrupted while
+     * waiting.
+     *
+     * @see #pause(boolean)
+     */
+    public void pause() throws InterruptedException {
+        pause(true);
+    }
+
+    /**
+     * Pauses this pipe. If <code>block</code> is true, will wait until the
+     * current read and its write have completed. Will otherwise return
+     * immediately.
+     *
+     * @param block whether to wait for the current operation (if any) or not.
+     *
+     * @exception InterruptedException if this thread is interrupted while
+     * waiting.
+     */
+    public void pause(boolean block) throws InterruptedException {
+        synchronized (lock) {
+            if (stopped) {
+                if (block) {
+                    join();
+                }
+                return;
+            }
+            running = false;
+            while (block && inFlight) {
+                lock.wait();
+            }
+        }
+    }
+
+    /**
+     * Stops this pipe. Will wait until the last read and its write have
+     * completed.
+     *
+     * @exception InterruptedException if this thread is interrupted while
+     * waiting.
+     *
+     * @see #stop(boolean)
+     */
+    public void stop() throws InterruptedException {
+        stop(true);
+    }
+
+    /**
+     * Stops this pipe. If <code>block</code> is true, will wait until the last
+     * read and its write have completed and the pipe has finished. Will
+     * otherwise return immediately.
+     *
+     * @param block whether to wait for the pipe to finish or not.
+     *
+     * @exception InterruptedException if this thread is interrupted while
+     * waiting.
+     */
+    public void stop(boolean block) throws InterruptedException {
+        boolean idle;
+        synchronized (lock) {
+            running = false;
+            stopped = true;
+            idle = !inFlight && claimFinish();
+        }
+        if (idle) {
+            finish();
+        }
+        if (block) {
+            join();
+        }
+    }
+
+    /**
+     * Waits for this pipe to finish piping.
+     *
+     * @exception InterruptedException if this thread is interrupted while
+     * waiting.
+     */
+    public void join() throws InterruptedException {
+        synchronized (lock) {
+            while (!finished) {
+                lock.wait();
+            }
+        }
+    }
+
+    /**
+     * Waits for this pipe to finish piping, and throws the exception which made
+     * this pipe fail, if any. Exceptions which are not
+     * <code>IOException</code>s are wrapped in an <code>IOException</code>.
+     *
+     * @exception InterruptedException if this thread is interrupted while
+     * waiting.
+     * @exception IOException if this pipe failed.
+     */
+    public void joinOrThrow() throws InterruptedException, IOException {
+        join();
+        Throwable t = failure;
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        }
+        if (t != null) {
+            throw new IOException(t);
+        }
+    }
+
+    /**
+     * Called once this pipe has finished piping, before threads waiting in
+     * {@link #join()} are released. The call is done by a thread of the
+     * channel group or by the thread stopping an idle pipe. By default, this
+     * method does nothing.
+     */
+    protected void pipeFinished() {
+        // Nothing to do by default.
+    }
+
+    private void read() {
+        buffer.clear().limit(bufsize);
+        opStart = System.nanoTime();
+        try {
+            in.read(buffer, reader);
+        }
+        catch (Throwable t) {
+            fail(t);
+        }
+    }
+
+    private void write() {
+        opStart = System.nanoTime();
+        try {
+            out.write(buffer, writer);
+        }
+        catch (Throwable t) {
+            fail(t);
+        }
+    }
+
+    // Called when the chunk has been written. Reads the next chunk unless we
+    // are paused or stopped.
+    private void written() {
+        boolean done;
+        synchronized (lock) {
+            if (running) {
+                done = false;
+            }
+            else {
+                inFlight = false;
+                done = stopped && claimFinish();
+                lock.notifyAll();
+                if (!done) {
+                    return;
+                }
+            }
+        }
+        if (done) {
+            finish();
+        }
+        else {
+            read();
+        }
+    }
+
+    private void fail(Throwable t) {
+        failure = t;
+        endOfInput();
+    }
+
+    private void endOfInput() {
+        boolean done;
+        synchronized (lock) {
+            inFlight = false;
+            running = false;
+            stopped = true;
+            done = claimFinish();
+            lock.notifyAll();
+        }
+        if (done) {
+            finish();
+        }
+    }
+
+    // Must be called while holding lock. Returns true if the caller is
+    // responsible for calling finish().
+    private boolean claimFinish() {
+        if (finishing) {
+            return false;
+        }
+        finishing = true;
+        return true;
+    }
+
+    private void finish() {
+        try {
+            if (buffer != null) {
+                pool.release(buffer);
+                buffer = null;
+            }
+            pipeFinished();
+        }
+        finally {
+            synchronized (lock) {
+                finished = true;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private class Reader implements CompletionHandler<Integer, Void> {
+        @Override
+        public void completed(Integer result, Void attachment) {
+            long now = System.nanoTime();
+            reads++;
+            readNanos += now - opStart;
+            lastActivity = now;
+            if (result < 0) {
+                endOfInput();
+                return;
+            }
+            buffer.flip();
+            write();
+        }
+
+        @Override
+        public void failed(Throwable t, Void attachment) {
+            fail(t);
+        }
+    }
+
+    private class Writer implements CompletionHandler<Integer, Void> {
+        @Override
+        public void completed(Integer result, Void attachment) {
+            long now = System.nanoTime();
+            transferred += result;
+            writeNanos += now - opStart;
+            lastActivity = now;
+            if (buffer.hasRemaining()) {
+                write();
+            }
+            else {
+                written();
+            }
+        }
+
+        @Override
+        public void failed(Throwable t, Void attachment) {
+            fail(t);
+        }
+    }
+
+    private interface Endpoint {
+        void read(ByteBuffer dst, CompletionHandler<Integer, Void> handler);
+
+        void write(ByteBuffer src, CompletionHandler<Integer, Void> handler);
+    }
+
+    private static class ByteEndpoint implements Endpoint {
+        private final AsynchronousByteChannel channel;
+
+        public ByteEndpoint(AsynchronousByteChannel channel) {
+            if (channel == null) {
+                throw new NullPointerException("channel");
+            }
+            this.channel = channel;
+        }
+
+        @Override
+        public void read(ByteBuffer dst,
+                         CompletionHandler<Integer, Void> handler) {
+            channel.read(dst, null, handler);
+        }
+
+        @Override
+        public void write(ByteBuffer src,
+                          CompletionHandler<Integer, Void> handler) {
+            channel.write(src, null, handler);
+        }
+    }
+
+    // File channels have no position of their own, so we keep it here and
+    // advance it once an operation has completed. The handler to notify is
+    // passed as the attachment, so no handler is created per operation.
+    private static class FileEndpoint implements Endpoint,
+            CompletionHandler<Integer, CompletionHandler<Integer, Void>> {
+        private final AsynchronousFileChannel channel;
+        private long position;
+
+        public FileEndpoint(AsynchronousFileChannel channel, long position) {
+            if (channel == null) {
+                throw new NullPointerException("channel");
+            }
+            if (position < 0) {
+                throw new IllegalArgumentException("position is negative");
+            }
+            this.channel = channel;
+            this.position = position;
+        }
+
+        @Override
+        public void read(ByteBuffer dst,
+                         CompletionHandler<Integer, Void> handler) {
+            channel.read(dst, position, handler, this);
+        }
+
+        @Override
+        public void write(ByteBuffer src,
+                          CompletionHandler<Integer, Void> handler) {
+            channel.write(src, position, handler, this);
+        }
+
+        @Override
+        public void completed(Integer result,
+                              CompletionHandler<Integer, Void> handler) {
+            if (result > 0) {
+                position += result;
+            }
+            handler.completed(result, null);
+        }
+
+        @Override
+        public void failed(Throwable t,
+                           CompletionHandler<Integer, Void> handler) {
+            handler.failed(t, null);
+        }
+    }
+}
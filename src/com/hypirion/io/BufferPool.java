@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A BufferPool is a pool of reusable byte arrays, char arrays and byte
+ * buffers. Buffers are pooled in size classes which are powers of two, so a
+ * buffer acquired from a pool may be larger than requested.
+ * <p>
+ * A pool may keep a small cache of buffers per thread, which lets a thread
+ * which repeatedly acquires and releases buffers avoid contention with other
+ * threads. Buffers cached by a thread are lost when the thread dies, so a
+ * thread cache only pays off when buffers are released by long-lived threads,
+ * such as the threads of a {@link PipeGroup#fixed(int)} group. The shared pool
+ * has no thread cache.
+ * <p>
+ * Buffers released to a pool must have been acquired from it, and must not be
+ * used afterwards. A pool keeps track of the buffers acquired from it which
+ * have not been released yet, and of the peak amount of memory they have used.
+ *
+ * @author Jean Niklas L'orange
+ * @since <code>com.hypirion.io 0.4.0</code>
+ */
+public class BufferPool {
+
+    /**
+     * The default maximal number of buffers of each type pooled per size
+     * class.
+     */
+    public static final int DEFAULT_MAX_POOLED = 64;
+
+    private static final int SIZE_CLASSES = 31;
+
+    private static final BufferPool SHARED = new BufferPool();
+
+    private final int maxPooled;
+    private final boolean direct;
+    private final List<SizeClass<byte[]>> bytes;
+    private final List<SizeClass<char[]>> chars;
+    private final List<SizeClass<ByteBuffer>> buffers;
+    private final ThreadLocal<ThreadCache> threadCache;
+    private final AtomicLong outstanding, outstandingBytes, peakBytes;
+
+    /**
+     * Creates a new heap buffer pool without a thread cache, which pools at
+     * most {@link #DEFAULT_MAX_POOLED} buffers of each type per size class.
+     */
+    public BufferPool() {
+        this(DEFAULT_MAX_POOLED);
+    }
+
+    /**
+     * Creates a new heap buffer pool without a thread cache, which pools at
+     * most <code>maxPooled</code> buffers of each type per size class.
+     *
+     * @param maxPooled the maximal number of pooled buffers per size class.
+     * @exception IllegalArgumentException if <code>maxPooled &lt; 0</code>.
+     */
+    public BufferPool(int maxPooled) {
+        this(maxPooled, false, false);
+    }
+
+    /**
+     * Creates a new buffer pool which pools at most <code>maxPooled</code>
+     * buffers of each type per size class. If <code>direct</code> is true, the
+     * byte buffers of this pool are direct. If <code>threadCache</code> is
+     * true, every thread caches one buffer of each type per size class in
+     * addition to the buffers pooled in this pool.
+     *
+     * @param maxPooled the maximal number of pooled buffers per size class.
+     * @param direct whether the byte buffers of this pool are direct.
+     * @param threadCache whether to cache buffers per thread.
+     * @exception IllegalArgumentException if <code>maxPooled &lt; 0</code>.
+     */
+    public BufferPool(int maxPooled, boolean direct, boolean threadCache) {
+        if (maxPooled < 0) {
+            throw new IllegalArgumentException("maxPooled must be >= 0");
+        }
+        this.maxPooled = maxPooled;
+        this.direct = direct;
+        bytes = sizeClasses();
+        chars = sizeClasses();
+        buffers = sizeClasses();
+        this.threadCache = threadCache ? new ThreadLocal<ThreadCache>() {
+                @Override
+                protected ThreadCache initialValue() {
+                    return new ThreadCache();
+                }
+            } : null;
+        outstanding = new AtomicLong();
+        outstandingBytes = new AtomicLong();
+        peakBytes = new AtomicLong();
+    }
+
+    /**
+     * Returns the buffer pool shared by default. The shared pool is a heap
+     * pool without a thread cache.
+     *
+     * @return the shared buffer pool.
+     */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the smallest size class which can hold <code>size</code>
+     * elements.
+     *
+     * @param size the minimal size.
+     * @return the smallest power of two at least as large as
+     * <code>size</code>.
+     * @exception IllegalArgumentException if <code>size</code> is not
+     * positive or larger than <code>2<sup>30</sup></code>.
+     */
+    public static int sizeClass(int size) {
+        return 1 << sizeClassIndex(size);
+    }
+
+    /**
+     * Returns true if the byte buffers of this pool are direct.
+     *
+     * @return true if this pool is direct, false otherwise.
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Acquires a byte array of at least <code>size</code> bytes.
+     *
+     * @param size the minimal size of the array.
+     * @return a byte array with length {@link #sizeClass(int)
+     * sizeClass(size)}.
+     */
+    public byte[] acquireBytes(int size) {
+        int idx = sizeClassIndex(size);
+        acquired(1L << idx);
+        byte[] b = null;
+        if (threadCache != null) {
+            ThreadCache tc = threadCache.get();
+            b = tc.bytes[idx];
+            tc.bytes[idx] = null;
+        }
+        if (b == null) {
+            b = bytes.get(idx).poll();
+        }
+        return b != null ? b : new byte[1 << idx];
+    }
+
+    /**
+     * Releases a byte array back to this pool.
+     *
+     * @param b the array to release.
+     */
+    public void release(byte[] b) {
+        int idx = indexOfLength(b.length);
+        if (idx < 0) {
+            return;
+        }
+        released(b.length);
+        if (threadCache != null) {
+            ThreadCache tc = threadCache.get();
+            if (tc.bytes[idx] == null) {
+                tc.bytes[idx] = b;
+                return;
+            }
+        }
+        bytes.get(idx).offer(b, maxPooled);
+    }
+
+    /**
+     * Acquires a char array of at least <code>size</code> chars.
+     *
+     * @param size the minimal size of the array.
+     * @return a char array with length {@link #sizeClass(int)
+     * sizeClass(size)}.
+     */
+    public char[] acquireChars(int size) {
+        int idx = sizeClassIndex(size);
+        acquired(2L << idx);
+        char[] c = null;
+        if (threadCache != null) {
+            ThreadCache tc = threadCache.get();
+            c = tc.chars[idx];
+            tc.chars[idx] = null;
+        }
+        if (c == null) {
+            c = chars.get(idx).poll();
+        }
+        return c != null ? c : new char[1 << idx];
+    }
+
+    /**
+     * Releases a char array back to this pool.
+     *
+     * @param c the array to release.
+     */
+    public void release(char[] c) {
+        int idx = indexOfLength(c.length);
+        if (idx < 0) {
+            return;
+        }
+        released(2L * c.length);
+        if (threadCache != null) {
+            ThreadCache tc = threadCache.get();
+            if (tc.chars[idx] == null) {
+                tc.chars[idx] = c;
+                return;
+            }
+        }
+        chars.get(idx).offer(c, maxPooled);
+    }
+
+    /**
+     * Acquires a byte buffer with a capacity of at least <code>size</code>
+     * bytes. The buffer is direct if this pool is direct, and otherwise
+     * backed by an array acquired through {@link #acquireBytes(int)}. The
+     * position of the buffer is zero and its limit is <code>size</code>.
+     *
+     * @param size the minimal capacity of the buffer.
+     * @return a byte buffer with capacity {@link #sizeClass(int)
+     * sizeClass(size)}.
+     */
+    public ByteBuffer acquireBuffer(int size) {
+        if (!direct) {
+            return ByteBuffer.wrap(acquireBytes(size), 0, size);
+        }
+        int idx = sizeClassIndex(size);
+        acquired(1L << idx);
+        ByteBuffer bb = null;
+        if (threadCache != null) {
+            ThreadCache tc = threadCache.get();
+            bb = tc.buffers[idx];
+            tc.buffers[idx] = null;
+        }
+        if (bb == null) {
+            bb = buffers.get(idx).poll();
+        }
+        if (bb == null) {
+            bb = ByteBuffer.allocateDirect(1 << idx);
+        }
+        bb.clear();
+        bb.limit(size);
+        return bb;
+    }
+
+    /**
+     * Releases a byte buffer back to this pool.
+     *
+     * @param bb the buffer to release.
+     */
+    public void release(ByteBuffer bb) {
+        if (!bb.isDirect()) {
+            if (bb.hasArray()) {
+                release(bb.array());
+            }
+            return;
+        }
+        int idx = indexOfLength(bb.capacity());
+        if (idx < 0) {
+            return;
+        }
+        released(bb.capacity());
+        if (threadCache != null) {
+            ThreadCache tc = threadCache.get();
+            if (tc.buffers[idx] == null) {
+                tc.buffers[idx] = bb;
+                return;
+            }
+        }
+        buffers.get(idx).offer(bb, maxPooled);
+    }
+
+    /**
+     * Returns the number of buffers acquired from this pool which have not
+     * been released yet.
+     *
+     * @return the number of outstanding buffers.
+     */
+    public long getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * Returns the number of bytes used by buffers acquired from this pool
+     * which have not been released yet.
+     *
+     * @return the number of outstanding bytes.
+     */
+    public long getOutstandingBytes() {
+        return outstandingBytes.get();
+    }
+
+    /**
+     * Returns the highest number of outstanding bytes this pool has had.
+     *
+     * @return the peak number of outstanding bytes.
+     */
+    public long getPeakBytes() {
+        return peakBytes.get();
+    }
+
+    private void acquired(long size) {
+        outstanding.incrementAndGet();
+        long now = outstandingBytes.addAndGet(size);
+        long peak = peakBytes.get();
+        while (now > peak && !peakBytes.compareAndSet(peak, now)) {
+            peak = peakBytes.get();
+        }
+    }
+
+    private void released(long size) {
+        outstanding.decrementAndGet();
+        outstandingBytes.addAndGet(-size);
+    }
+
+    private static <T> List<SizeClass<T>> sizeClasses() {
+        List<SizeClass<T>> classes = new ArrayList<SizeClass<T>>(SIZE_CLASSES);
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            classes.add(new SizeClass<T>());
+        }
+        return classes;
+    }
+
+    private static int sizeClassIndex(int size) {
+        if (size <= 0 || size > (1 << (SIZE_CLASSES - 1))) {
+            throw new IllegalArgumentException("Unsupported size " + size);
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    private static int indexOfLength(int length) {
+        if (length <= 0 || Integer.bitCount(length) != 1) {
+            return -1;
+        }
+        return Integer.numberOfTrailingZeros(length);
+    }
+
+    private static class ThreadCache {
+        final byte[][] bytes = new byte[SIZE_CLASSES][];
+        final char[][] chars = new char[SIZE_CLASSES][];
+        final ByteBuffer[] buffers = new ByteBuffer[SIZE_CLASSES];
+    }
+
+    private static class SizeClass<T> {
+        private final Queue<T> pooled;
+        private final AtomicInteger count;
+
+        SizeClass() {
+            pooled = new ConcurrentLinkedQueue<T>();
+            count = new AtomicInteger();
+        }
+
+        T poll() {
+            T t = pooled.poll();
+            if (t != null) {
+                count.decrementAndGet();
+            }
+            return t;
+        }
+
+        void offer(T t, int max) {
+            if (count.incrementAndGet() <= max) {
+                pooled.offer(t);
+            }
+            else {
+                count.decrementAndGet();
+            }
+        }
+    }
+}
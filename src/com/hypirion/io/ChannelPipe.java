@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A ChannelPipe is a pipe between a readable and a writable byte channel. If
+ * the input channel is a {@link java.nio.channels.FileChannel}, data is moved
+ * through {@link FileChannel#transferTo}, which lets the operating system copy
+ * the data directly without passing it through the JVM. Otherwise, data is
+ * piped through a single direct byte buffer. {@link FileChannel#transferFrom}
+ * is not used, as it copies through a buffer anyway when the input channel is
+ * not a file, and keeps reading until it has read all it was asked for, which
+ * would keep a pipe from being paused or stopped.
+ * <p>
+ * Both channels must be in blocking mode. A ChannelPipe is started, paused and
+ * stopped just like a {@link Pipe}, and does not close any of its channels.
+ * As channels are unbuffered, the flush policy of a ChannelPipe has no effect.
+ *
+ * @author Jean Niklas L'orange
+ * @see Pipe
+ * @since <code>com.hypirion.io 0.4.0</code>
+ */
+public class ChannelPipe extends Pipe {
+
+    /**
+     * The default number of bytes a channel pipe will attempt to transfer per
+     * chunk if the input channel is a file channel.
+     */
+    public static final int DEFAULT_TRANSFER_SIZE = 1 << 20;
+
+    /**
+     * Creates a new channel pipe, which redirects data from the channel
+     * <code>in</code> to the channel <code>out</code> once started.
+     *
+     * @param in the channel to read from.
+     * @param out the channel to write out to.
+     */
+    public ChannelPipe(ReadableByteChannel in, WritableByteChannel out) {
+        this(in, out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new channel pipe with buffer size <code>bufsize</code>, which
+     * redirects data from the channel <code>in</code> to the channel
+     * <code>out</code> once started. If the input channel is a file channel,
+     * data is transferred in chunks of {@link #DEFAULT_TRANSFER_SIZE} bytes.
+     *
+     * @param in the channel to read from.
+     * @param out the channel to write out to.
+     * @param bufsize the buffer size of the pipe.
+     */
+    public ChannelPipe(ReadableByteChannel in, WritableByteChannel out,
+                       int bufsize) {
+        this(in, out, bufsize, PipeGroup.DEDICATED);
+    }
+
+    /**
+     * Creates a new channel pipe with buffer size <code>bufsize</code>, which
+     * redirects data from the channel <code>in</code> to the channel
+     * <code>out</code> once started. The pipe will run on a thread from
+     * <code>group</code>.
+     *
+     * @param in the channel to read from.
+     * @param out the channel to write out to.
+     * @param bufsize the buffer size of the pipe.
+     * @param group the pipe group to run this pipe in.
+     */
+    public ChannelPipe(ReadableByteChannel in, WritableByteChannel out,
+                       int bufsize, PipeGroup group) {
+        super(transferFor(in, out, bufsize), group);
+    }
+
+    static Transfer transferFor(ReadableByteChannel in,
+                                WritableByteChannel out, int bufsize) {
+        if (in instanceof FileChannel) {
+            return new FileTransferTo((FileChannel) in, out, bufsize);
+        }
+        return new BufferTransfer(in, out, bufsize);
+    }
+
+    private static class FileTransferTo implements Transfer {
+        private final FileChannel in;
+        private final WritableByteChannel out;
+        private final int bufsize;
+        private ByteBuffer fallback;
+
+        public FileTransferTo(FileChannel in, WritableByteChannel out,
+                              int bufsize) {
+            this.in = in;
+            this.out = out;
+            this.bufsize = bufsize;
+            fallback = null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long remaining = in.size() - in.position();
+            if (remaining <= 0) {
+                return -1;
+            }
+            return (int) Math.min(remaining, DEFAULT_TRANSFER_SIZE);
+        }
+
+        @Override
+        public void write(int count) throws IOException {
+            long pos = in.position();
+            long end = pos + count;
+            while (pos < end) {
+                long n = in.transferTo(pos, end - pos, out);
+                if (n == 0) {
+                    n = copy(pos, end - pos);
+                }
+                pos += n;
+                in.position(pos);
+            }
+        }
+
+        // Called when transferTo made no progress. Copies a single buffer
+        // instead, and fails if that makes no progress either.
+        private long copy(long pos, long count) throws IOException {
+            if (fallback == null) {
+                fallback = ByteBuffer.allocateDirect(bufsize);
+            }
+            fallback.clear();
+            if (count < bufsize) {
+                fallback.limit((int) count);
+            }
+            int n = in.read(fallback, pos);
+            if (n < 0) {
+                throw new EOFException("File shrank while being piped");
+            }
+            fallback.flip();
+            while (fallback.hasRemaining()) {
+                if (out.write(fallback) == 0) {
+                    throw new IOException("Output channel accepts no data, " +
+                                          "is it in non-blocking mode?");
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public void flush() {
+            // Channels have no buffers to flush.
+        }
+    }
+
+    private static class BufferTransfer implements Transfer {
+        private final ByteBuffer buffer;
+        private final ReadableByteChannel in;
+        private final WritableByteChannel out;
+
+        public BufferTransfer(ReadableByteChannel in, WritableByteChannel out,
+                              int bufsize) {
+            buffer = ByteBuffer.allocateDirect(bufsize);
+            this.in = in;
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            buffer.clear();
+            return in.read(buffer);
+        }
+
+        @Override
+        public void write(int count) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+
+        @Override
+        public void flush() {
+            // Channels have no buffers to flush.
+        }
+    }
+}
@@ -18,6 +18,7 @@ import java.io.OutputStream;
 import java.io.Writer;
 import java.io.Reader;
 import java.io.Closeable;
+import java.io.Flushable;
 import java.io.IOException;
 
 /**
@@ -28,6 +29,11 @@ import java.io.IOException;
  * or the pipe has been stopped, a ClosingPipe will close the output source
  * afterwards.
  * <p>
+ * The output source is closed by the thread finishing the pipe, before threads
+ * waiting in {@link #join()} are released: It is first flushed, then closed,
+ * and finally the input source is closed as well if the pipe has been told to
+ * through {@link #setCloseInput(boolean)}.
+ * <p>
  * Common usage of pipes includes asynchronous zipping of data from two data
  * sources, redirecting output and input to subprocesses and for loggers you
  * want to just pipe from and input source.
@@ -37,7 +43,8 @@ import java.io.IOException;
  */
 public class ClosingPipe extends Pipe {
 
-    protected final Thread closer;
+    private final Closeable in, out;
+    private volatile boolean closeInput;
 
     /**
      * Creates a new closing pipe, which redirects data from the stream
@@ -60,8 +67,45 @@ public class ClosingPipe extends Pipe {
      * @param bufsize the buffer size of the pipe.
      */
     public ClosingPipe(InputStream in, OutputStream out, int bufsize) {
-        super(in, out, bufsize);
-        closer = setupCloser(out);
+        this(in, out, bufsize, PipeGroup.DEDICATED);
+    }
+
+    /**
+     * Creates a new closing pipe with buffer size <code>bufsize</code>, which
+     * redirects data from the stream <code>in</code> to the stream
+     * <code>out</code> once started. The pipe will run on a thread from
+     * <code>group</code>.
+     *
+     * @param in the input stream to read from.
+     * @param out the output stream to write out to.
+     * @param bufsize the buffer size of the pipe.
+     * @param group the pipe group to run this pipe in.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public ClosingPipe(InputStream in, OutputStream out, int bufsize,
+                       PipeGroup group) {
+        this(in, out, bufsize, group, BufferPool.shared());
+    }
+
+    /**
+     * Creates a new closing pipe with buffer size <code>bufsize</code>, which
+     * redirects data from the stream <code>in</code> to the stream
+     * <code>out</code> once started. The pipe will run on a thread from
+     * <code>group</code>, and take its buffer from <code>pool</code>.
+     *
+     * @param in the input stream to read from.
+     * @param out the output stream to write out to.
+     * @param bufsize the buffer size of the pipe.
+     * @param group the pipe group to run this pipe in.
+     * @param pool the buffer pool to take buffers from.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public ClosingPipe(InputStream in, OutputStream out, int bufsize,
+                       PipeGroup group, BufferPool pool) {
+        super(in, out, bufsize, group, pool);
+        this.in = in;
+        this.out = out;
+        closeInput = false;
     }
 
     /**
@@ -85,38 +129,93 @@ public class ClosingPipe extends Pipe {
      * @param bufsize the buffer size of the pipe.
      */
     public ClosingPipe(Reader in, Writer out, int bufsize) {
-        super(in, out, bufsize);
-        closer = setupCloser(out);
+        this(in, out, bufsize, PipeGroup.DEDICATED);
+    }
+
+    /**
+     * Creates a new closing pipe with buffer size <code>bufsize</code>, which
+     * redirects data from the reader <code>in</code> to the writer
+     * <code>out</code> once started. The pipe will run on a thread from
+     * <code>group</code>.
+     *
+     * @param in the reader to read from.
+     * @param out the writer to write out to.
+     * @param bufsize the buffer size of the pipe.
+     * @param group the pipe group to run this pipe in.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public ClosingPipe(Reader in, Writer out, int bufsize, PipeGroup group) {
+        this(in, out, bufsize, group, BufferPool.shared());
     }
 
-    private Thread setupCloser(Closeable out) {
-        Runnable pt = new OutCloser(out);
-        Thread closer = new Thread(pt);
-        closer.setName(String.format("ClosingPipeCloser %d", this.hashCode()));
-        closer.setDaemon(true);
-        closer.start();
-        return closer;
+    /**
+     * Creates a new closing pipe with buffer size <code>bufsize</code>, which
+     * redirects data from the reader <code>in</code> to the writer
+     * <code>out</code> once started. The pipe will run on a thread from
+     * <code>group</code>, and take its buffer from <code>pool</code>.
+     *
+     * @param in the reader to read from.
+     * @param out the writer to write out to.
+     * @param bufsize the buffer size of the pipe.
+     * @param group the pipe group to run this pipe in.
+     * @param pool the buffer pool to take buffers from.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public ClosingPipe(Reader in, Writer out, int bufsize, PipeGroup group,
+                       BufferPool pool) {
+        super(in, out, bufsize, group, pool);
+        this.in = in;
+        this.out = out;
+        closeInput = false;
     }
 
-    private class OutCloser implements Runnable {
-        private final Closeable out;
+    /**
+     * Sets whether this pipe closes its input source after its output source
+     * once it has finished piping. By default, the input source is left open.
+     *
+     * @param closeInput whether to close the input source.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public void setCloseInput(boolean closeInput) {
+        this.closeInput = closeInput;
+    }
+
+    /**
+     * Returns true if this pipe closes its input source once it has finished
+     * piping.
+     *
+     * @return true if the input source is closed, false otherwise.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public boolean getCloseInput() {
+        return closeInput;
+    }
 
-        public OutCloser(Closeable out) {
-            this.out = out;
+    /**
+     * Flushes and closes the output source of this pipe, and closes the input
+     * source if this pipe has been told to. Called by the pipe once it has
+     * finished piping.
+     */
+    @Override
+    protected void pipeFinished() {
+        try {
+            ((Flushable) out).flush();
+        }
+        catch (IOException ioe) {
+            // Closing will most likely fail as well, but we'll try.
         }
+        close(out);
+        if (closeInput) {
+            close(in);
+        }
+    }
 
-        @Override
-        public void run() {
-            try {
-                ClosingPipe.this.join();
-                out.close();
-            }
-            catch (InterruptedException ie) {
-                run(); // We're not giving up that easily.
-            }
-            catch (IOException ioe) {
-                // The closable is somehow broken, leave it be.
-            }
+    private static void close(Closeable c) {
+        try {
+            c.close();
+        }
+        catch (IOException ioe) {
+            // The closable is somehow broken, leave it be.
         }
     }
 }
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A CompressingPipe is a pipe which compresses the data from its input stream
+ * before writing it to its output stream. Compression is done by a stage
+ * thread, which the pipe hands chunks to through a bounded queue, so reading
+ * and compressing happen in parallel. The stage runs on a helper thread of the
+ * pipe's group, see {@link PipeGroup}.
+ * <p>
+ * To keep the compression ratio high, the compressor is only sync flushed when
+ * enough data has been compressed since the last sync flush, when data has
+ * been waiting for a sync flush for too long, and when the pipe is flushed.
+ * The flush policy of a CompressingPipe is {@link FlushPolicy#ON_FINISH} by
+ * default, so the pipe itself is only flushed when it is paused, stopped or
+ * reaches the end of its input stream.
+ * <p>
+ * When a CompressingPipe finishes, the compressed stream is completed and
+ * flushed before threads waiting in {@link #join()} are released. A
+ * CompressingPipe does not close any of its streams.
+ *
+ * @author Jean Niklas L'orange
+ * @see DecompressingPipe
+ * @since <code>com.hypirion.io 0.4.0</code>
+ */
+public class CompressingPipe extends Pipe {
+
+    /**
+     * The default number of chunks which can be queued for compression.
+     */
+    public static final int DEFAULT_QUEUE_DEPTH = 16;
+
+    /**
+     * The default number of bytes compressed between sync flushes.
+     */
+    public static final long DEFAULT_SYNC_SIZE = 1 << 20;
+
+    /**
+     * The default maximal time in milliseconds data waits for a sync flush.
+     */
+    public static final long DEFAULT_SYNC_MILLIS = 1000;
+
+    private final CompressStage stage;
+
+    /**
+     * Creates a new compressing pipe, which compresses data from the stream
+     * <code>in</code> in the format <code>format</code> to the stream
+     * <code>out</code> once started.
+     *
+     * @param in the input stream to read from.
+     * @param out the output stream to write compressed data to.
+     * @param format the compression format.
+     */
+    public CompressingPipe(InputStream in, OutputStream out,
+                           CompressionFormat format) {
+        this(in, out, format, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates a new compressing pipe, which compresses data from the stream
+     * <code>in</code> in the format <code>format</code> with compression
+     * level <code>level</code> to the stream <code>out</code> once started.
+     *
+     * @param in the input stream to read from.
+     * @param out the output stream to write compressed data to.
+     * @param format the compression format.
+     * @param level the compression level, from 0 to 9, or -1 for the default.
+     */
+    public CompressingPipe(InputStream in, OutputStream out,
+                           CompressionFormat format, int level) {
+        this(in, out, format, level, DEFAULT_BUFFER_SIZE, DEFAULT_QUEUE_DEPTH,
+             PipeGroup.DEDICATED);
+    }
+
+    /**
+     * Creates a new compressing pipe with buffer size <code>bufsize</code>,
+     * which compresses data from the stream <code>in</code> in the format
+     * <code>format</code> with compression level <code>level</code> to the
+     * stream <code>out</code> once started. At most <code>depth</code> chunks
+     * are queued for compression, and the pipe runs on a thread from
+     * <code>group</code>. The stage runs on a helper thread of
+     * <code>group</code>.
+     *
+     * @param in the input stream to read from.
+     * @param out the output stream to write compressed data to.
+     * @param format the compression format.
+     * @param level the compression level, from 0 to 9, or -1 for the default.
+     * @param bufsize the buffer size of the pipe.
+     * @param depth the maximal number of queued chunks.
+     * @param group the pipe group to run this pipe in.
+     * @exception IllegalArgumentException if <code>level</code> is not a
+     * valid compression level or <code>depth &lt;= 0</code>.
+     */
+    public CompressingPipe(InputStream in, OutputStream out,
+                           CompressionFormat format, int level, int bufsize,
+                           int depth, PipeGroup group) {
+        this(new CompressStage(in, out, format, level, bufsize, depth,
+                               group.helpers()), group);
+    }
+
+    private CompressingPipe(CompressStage stage, PipeGroup group) {
+        super(stage, group);
+        this.stage = stage;
+        setFlushPolicy(FlushPolicy.ON_FINISH);
+    }
+
+    /**
+     * Sets when the compressor is sync flushed: Once <code>size</code> bytes
+     * have been compressed since the last sync flush, or once data has waited
+     * <code>millis</code> milliseconds for a sync flush, whichever comes
+     * first. A non-positive <code>millis</code> disables the time-based sync
+     * flushes. Sync flushes are done with the defaults {@link
+     * #DEFAULT_SYNC_SIZE} and {@link #DEFAULT_SYNC_MILLIS} unless set.
+     *
+     * @param size the amount of data which triggers a sync flush.
+     * @param millis the time in milliseconds which triggers a sync flush.
+     * @exception IllegalArgumentException if <code>size &lt;= 0</code>.
+     */
+    public void setSyncFlush(long size, long millis) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        stage.syncSize = size;
+        stage.syncMillis = millis;
+    }
+
+    /**
+     * Returns the number of chunks currently queued for compression.
+     *
+     * @return the number of queued chunks.
+     */
+    public int getQueued() {
+        return stage.queued();
+    }
+
+    /**
+     * Completes the compressed stream, and waits for the stage to write it
+     * out. Called by the pipe once it has finished piping.
+     */
+    @Override
+    protected void pipeFinished() {
+        Throwable t = stage.finish();
+        if (t != null) {
+            failed(t);
+        }
+    }
+
+    private static class CompressStage extends Stage {
+        private final OutputStream out;
+        private final CompressionFormat format;
+        private final int level;
+        volatile long syncSize, syncMillis;
+
+        public CompressStage(InputStream in, OutputStream out,
+                             CompressionFormat format, int level, int bufsize,
+                             int depth, Executor executor) {
+            super(in, bufsize, depth, BufferPool.shared(), executor);
+            if (level < -1 || level > 9) {
+                throw new IllegalArgumentException("Invalid level " + level);
+            }
+            if (format == null) {
+                throw new NullPointerException("format");
+            }
+            this.out = out;
+            this.format = format;
+            this.level = level;
+            syncSize = DEFAULT_SYNC_SIZE;
+            syncMillis = DEFAULT_SYNC_MILLIS;
+        }
+
+        @Override
+        void process() throws IOException, InterruptedException {
+            DeflaterOutputStream dos;
+            Deflater def;
+            if (format == CompressionFormat.GZIP) {
+                LevelGZIPOutputStream gz =
+                    new LevelGZIPOutputStream(out, level);
+                dos = gz;
+                def = gz.deflater();
+            }
+            else {
+                def = new Deflater(level);
+                dos = new DeflaterOutputStream(out, def, 8192, true);
+            }
+            try {
+                compress(dos);
+            }
+            finally {
+                def.end();
+            }
+        }
+
+        private void compress(DeflaterOutputStream dos)
+            throws IOException, InterruptedException {
+            long unsynced = 0;
+            long firstUnsynced = 0;
+            while (true) {
+                long wait = -1;
+                long millis = syncMillis;
+                if (unsynced > 0 && millis > 0) {
+                    long waited = (System.nanoTime() - firstUnsynced) / 1000000;
+                    wait = Math.max(millis - waited, 0);
+                }
+                Chunk c = take(wait);
+                if (c == null || c == FLUSH) {
+                    if (unsynced > 0) {
+                        dos.flush();
+                        unsynced = 0;
+                    }
+                    continue;
+                }
+                if (c == END) {
+                    dos.finish();
+                    out.flush();
+                    return;
+                }
+                try {
+                    dos.write(c.data, 0, c.count);
+                }
+                finally {
+                    release(c);
+                }
+                if (unsynced == 0) {
+                    firstUnsynced = System.nanoTime();
+                }
+                unsynced += c.count;
+                if (unsynced >= syncSize) {
+                    dos.flush();
+                    unsynced = 0;
+                }
+            }
+        }
+    }
+
+    // Lets us set the level of a gzip stream, and end its deflater without
+    // closing the output stream.
+    private static class LevelGZIPOutputStream extends GZIPOutputStream {
+        public LevelGZIPOutputStream(OutputStream out, int level)
+            throws IOException {
+            super(out, 8192, true);
+            def.setLevel(level);
+        }
+
+        public Deflater deflater() {
+            return def;
+        }
+    }
+}
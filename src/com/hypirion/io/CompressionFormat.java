@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+/**
+ * The compression formats supported by {@link CompressingPipe} and {@link
+ * DecompressingPipe}.
+ *
+ * @author Jean Niklas L'orange
+ * @since <code>com.hypirion.io 0.4.0</code>
+ */
+public enum CompressionFormat {
+    /** The gzip file format, as read by {@link java.util.zip.GZIPInputStream}. */
+    GZIP,
+    /** The zlib format, as read by {@link java.util.zip.InflaterInputStream}. */
+    DEFLATE
+}
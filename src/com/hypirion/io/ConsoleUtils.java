@@ -16,13 +16,21 @@ package com.hypirion.io;
 import java.io.Console;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
 /**
  * The ConsoleUtils class is a static collection of methods used to modify or
  * use the console in rather unconventional ways. It is mainly a way to set on
@@ -36,6 +44,50 @@ import java.lang.reflect.Method;
 
 public final class ConsoleUtils {
 
+    // The handles into Java's own console class are resolved once, as looking
+    // them up and making them accessible is slow. If resolving them failed,
+    // both are null and ECHO_FAILURE is the exception to throw instead.
+    private static final MethodHandle ECHO, SET_ECHO_OFF;
+    private static final Exception ECHO_FAILURE;
+
+    private static final ThreadLocal<Scratch> SCRATCH =
+        new ThreadLocal<Scratch>() {
+            @Override
+            protected Scratch initialValue() {
+                return new Scratch();
+            }
+        };
+
+    static {
+        MethodHandle echo = null;
+        MethodHandle setEchoOff = null;
+        Exception failure = null;
+        try {
+            Method m = Console.class.getDeclaredMethod("echo", Boolean.TYPE);
+            m.setAccessible(true);
+            Field f = echoOffField();
+            f.setAccessible(true);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            echo = lookup.unreflect(m);
+            setEchoOff = lookup.unreflectSetter(f);
+        }
+        catch (RuntimeException re) {
+            // Newer JVMs refuse to make the console internals accessible.
+            failure = new IllegalAccessException(re.getMessage());
+            failure.initCause(re);
+            echo = null;
+            setEchoOff = null;
+        }
+        catch (Exception e) {
+            failure = e;
+            echo = null;
+            setEchoOff = null;
+        }
+        ECHO = echo;
+        SET_ECHO_OFF = setEchoOff;
+        ECHO_FAILURE = failure;
+    }
+
     /**
      * A static method which peeks into the {@link java.io.Console} class and
      * manually turns on or off echoing in the given console.
@@ -45,7 +97,7 @@ public final class ConsoleUtils {
      * @exception NoSuchMethodException if Java's own console class have no
      * private method named "echo".
      * @exception NoSuchFieldException if Java's own console class have no
-     * private field named "echoOff".
+     * private field named "echoOff" or "restoreEcho".
      * @exception InvocationTargetException if Java's own console class have a
      * private method named "echo", but that this method tries to invoke that
      * method erroneously.
@@ -55,28 +107,43 @@ public final class ConsoleUtils {
      */
     public static synchronized boolean setEcho(boolean on)
         throws NoSuchMethodException, IllegalAccessException, NoSuchFieldException, InvocationTargetException {
-        Class params[] = new Class[1];
-        params[0] = Boolean.TYPE;
-        Method echo = Console.class.getDeclaredMethod("echo", params);
-        echo.setAccessible(true);
-        boolean res = (Boolean) echo.invoke(null, on);
-        Field echoOff = Console.class.getDeclaredField("echoOff");
-        echoOff.setAccessible(true);
-        echoOff.set(null, res);
-        return res;
+        if (ECHO == null) {
+            throwEchoFailure();
+        }
+        try {
+            boolean res = (boolean) ECHO.invokeExact(on);
+            SET_ECHO_OFF.invokeExact(res);
+            return res;
+        }
+        catch (Error e) {
+            throw e;
+        }
+        catch (RuntimeException re) {
+            throw re;
+        }
+        catch (Throwable t) {
+            throw new InvocationTargetException(t);
+        }
     }
-    
+
     /**
      * A static method which will read from a given InputStream while it turns
      * echo off in the JVM console. Works just as {@link
      * java.io.Console#readPassword}.
+     * <p>
+     * The line is read without consuming anything after its line terminator,
+     * and is decoded with the default charset. Apart from the returned array,
+     * every buffer the password passes through is zeroed before this method
+     * returns. If the console internals are inaccessible and <code>is</code> is
+     * {@link System#in} connected to a console, the password is read through
+     * {@link java.io.Console#readPassword()} instead.
      *
      * @param is the InputStream to read from.
      *
      * @exception NoSuchMethodException if Java's own console class have no
      * private method named "echo".
      * @exception NoSuchFieldException if Java's own console class have no
-     * private field named "echoOff".
+     * private field named "echoOff" or "restoreEcho".
      * @exception InvocationTargetException if Java's own console class have a
      * private method named "echo", but that this method tries to invoke that
      * method erroneously.
@@ -88,37 +155,125 @@ public final class ConsoleUtils {
      */
     public static char[] readPassword(InputStream is) throws
         NoSuchMethodException, IllegalAccessException, NoSuchFieldException, InvocationTargetException, IOException {
+        if (ECHO == null) {
+            Console console = System.console();
+            if (is == System.in && console != null) {
+                char[] pw = console.readPassword();
+                return pw == null ? new char[0] : pw;
+            }
+        }
         try {
             synchronized(is) {
                 setEcho(false);
-                InputStreamReader isr = new InputStreamReader(is);
-                char[] buf = new char[32];
-                int len = 0;
-                loop:
-                while (true) {
-                    int c = isr.read();
-                    switch (c) {
-                    case -1:
-                    case '\n':
-                        break loop;
-                    case '\r':
-                        continue;
-                    }
-                    buf[len] = (char) c;
-                    len++;
-                    if (len == buf.length) {
-                        char[] fresh = new char[2*len];
-                        System.arraycopy(buf, 0, fresh, 0, len);
-                        buf = fresh;
-                    }
+                return readLine(is);
+            }
+        }
+        finally {
+            setEcho(true);
+        }
+    }
+
+    // The field which makes the console restore echoing on shutdown was
+    // renamed from echoOff to restoreEcho in Java 9.
+    private static Field echoOffField() throws NoSuchFieldException {
+        try {
+            return Console.class.getDeclaredField("echoOff");
+        }
+        catch (NoSuchFieldException nsfe) {
+            try {
+                return Console.class.getDeclaredField("restoreEcho");
+            }
+            catch (NoSuchFieldException ignored) {
+                throw nsfe;
+            }
+        }
+    }
+
+    private static void throwEchoFailure()
+        throws NoSuchMethodException, IllegalAccessException, NoSuchFieldException {
+        if (ECHO_FAILURE instanceof NoSuchMethodException) {
+            throw (NoSuchMethodException) ECHO_FAILURE;
+        }
+        if (ECHO_FAILURE instanceof NoSuchFieldException) {
+            throw (NoSuchFieldException) ECHO_FAILURE;
+        }
+        if (ECHO_FAILURE instanceof IllegalAccessException) {
+            throw (IllegalAccessException) ECHO_FAILURE;
+        }
+        IllegalAccessException iae =
+            new IllegalAccessException(String.valueOf(ECHO_FAILURE));
+        iae.initCause(ECHO_FAILURE);
+        throw iae;
+    }
+
+    // Reads a line byte by byte, so that nothing after the line terminator is
+    // consumed, and decodes it in one go.
+    private static char[] readLine(InputStream is) throws IOException {
+        Scratch s = SCRATCH.get();
+        int n = 0;
+        try {
+            while (true) {
+                int b = is.read();
+                if (b == -1 || b == '\n') {
+                    break;
+                }
+                if (n == s.bytes.length) {
+                    s.growBytes();
                 }
-                char[] out = new char[len];
-                System.arraycopy(buf, 0, out, 0, len);
-                return out;
+                s.bytes[n++] = (byte) b;
             }
+            return s.decode(n);
         }
         finally {
-            setEcho(true);            
+            Arrays.fill(s.bytes, 0, n, (byte) 0);
+        }
+    }
+
+    // Per-thread buffers for reading passwords. They only hold a password
+    // while it is being read, and are zeroed afterwards.
+    private static class Scratch {
+        byte[] bytes;
+        char[] chars;
+        CharsetDecoder decoder;
+
+        Scratch() {
+            bytes = new byte[64];
+            chars = new char[64];
+            decoder = null;
+        }
+
+        void growBytes() {
+            byte[] fresh = Arrays.copyOf(bytes, 2 * bytes.length);
+            Arrays.fill(bytes, (byte) 0);
+            bytes = fresh;
+        }
+
+        // Decodes the first n bytes and returns the chars without any CRs.
+        char[] decode(int n) {
+            Charset cs = Charset.defaultCharset();
+            if (decoder == null || !decoder.charset().equals(cs)) {
+                decoder = cs.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            }
+            int max = (int) Math.ceil(n * (double) decoder.maxCharsPerByte());
+            if (chars.length < max) {
+                chars = new char[max];
+            }
+            CharBuffer out = CharBuffer.wrap(chars);
+            decoder.reset();
+            decoder.decode(ByteBuffer.wrap(bytes, 0, n), out, true);
+            decoder.flush(out);
+            int decoded = out.position();
+            int len = 0;
+            for (int i = 0; i < decoded; i++) {
+                if (chars[i] != '\r') {
+                    chars[len++] = chars[i];
+                }
+            }
+            char[] res = Arrays.copyOf(chars, len);
+            Arrays.fill(chars, 0, decoded, '\0');
+            return res;
         }
     }
 }
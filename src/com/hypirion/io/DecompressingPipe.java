@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A DecompressingPipe is a pipe which decompresses the data from its input
+ * stream before writing it to its output stream. Decompression is done by a
+ * stage thread, which the pipe hands chunks to through a bounded queue, so
+ * reading and decompressing happen in parallel. The stage runs on a helper
+ * thread of the pipe's group, see {@link PipeGroup}.
+ * <p>
+ * The output stream is flushed whenever the stage has decompressed all data
+ * read so far, and when the pipe is flushed. The flush policy of a
+ * DecompressingPipe is {@link FlushPolicy#ON_FINISH} by default. Data after
+ * the end of the compressed stream is ignored, and a truncated compressed
+ * stream makes the pipe fail.
+ * <p>
+ * A gzip stream consisting of multiple members is decompressed as the
+ * concatenation of its members. Whenever a member ends, the stage flushes the
+ * output stream and waits for more input or the end of the input stream to
+ * tell whether another member follows. This is intentional: The stage would
+ * otherwise stop after a member ending at a chunk boundary.
+ * <p>
+ * When a DecompressingPipe finishes, the stage writes out all queued data
+ * before threads waiting in {@link #join()} are released. A DecompressingPipe
+ * does not close any of its streams.
+ *
+ * @author Jean Niklas L'orange
+ * @see CompressingPipe
+ * @since <code>com.hypirion.io 0.4.0</code>
+ */
+public class DecompressingPipe extends Pipe {
+
+    /**
+     * The default number of chunks which can be queued for decompression.
+     */
+    public static final int DEFAULT_QUEUE_DEPTH = 16;
+
+    private final DecompressStage stage;
+
+    /**
+     * Creates a new decompressing pipe, which decompresses data in the format
+     * <code>format</code> from the stream <code>in</code> to the stream
+     * <code>out</code> once started.
+     *
+     * @param in the input stream to read compressed data from.
+     * @param out the output stream to write out to.
+     * @param format the compression format.
+     */
+    public DecompressingPipe(InputStream in, OutputStream out,
+                             CompressionFormat format) {
+        this(in, out, format, DEFAULT_BUFFER_SIZE, DEFAULT_QUEUE_DEPTH,
+             PipeGroup.DEDICATED);
+    }
+
+    /**
+     * Creates a new decompressing pipe with buffer size <code>bufsize</code>,
+     * which decompresses data in the format <code>format</code> from the
+     * stream <code>in</code> to the stream <code>out</code> once started. At
+     * most <code>depth</code> chunks are queued for decompression, and the
+     * pipe runs on a thread from <code>group</code>. The stage runs on a
+     * helper thread of <code>group</code>.
+     *
+     * @param in the input stream to read compressed data from.
+     * @param out the output stream to write out to.
+     * @param format the compression format.
+     * @param bufsize the buffer size of the pipe.
+     * @param depth the maximal number of queued chunks.
+     * @param group the pipe group to run this pipe in.
+     * @exception IllegalArgumentException if <code>depth &lt;= 0</code>.
+     */
+    public DecompressingPipe(InputStream in, OutputStream out,
+                             CompressionFormat format, int bufsize, int depth,
+                             PipeGroup group) {
+        this(new DecompressStage(in, out, format, bufsize, depth,
+                                 group.helpers()), group);
+    }
+
+    private DecompressingPipe(DecompressStage stage, PipeGroup group) {
+        super(stage, group);
+        this.stage = stage;
+        setFlushPolicy(FlushPolicy.ON_FINISH);
+    }
+
+    /**
+     * Returns the number of chunks currently queued for decompression.
+     *
+     * @return the number of queued chunks.
+     */
+    public int getQueued() {
+        return stage.queued();
+    }
+
+    /**
+     * Waits for the stage to write out all queued data. Called by the pipe
+     * once it has finished piping.
+     */
+    @Override
+    protected void pipeFinished() {
+        Throwable t = stage.finish();
+        if (t != null) {
+            failed(t);
+        }
+    }
+
+    private static class DecompressStage extends Stage {
+        private final OutputStream out;
+        private final CompressionFormat format;
+
+        public DecompressStage(InputStream in, OutputStream out,
+                               CompressionFormat format, int bufsize,
+                               int depth, Executor executor) {
+            super(in, bufsize, depth, BufferPool.shared(), executor);
+            if (format == null) {
+                throw new NullPointerException("format");
+            }
+            this.out = out;
+            this.format = format;
+        }
+
+        @Override
+        void process() throws IOException {
+            ChunkInputStream src = new ChunkInputStream();
+            if (src.isEmpty()) {
+                // Nothing was piped, so there is nothing to decompress.
+                return;
+            }
+            InputStream zin = format == CompressionFormat.GZIP
+                ? new GZIPInputStream(src, 8192)
+                : new InflaterInputStream(src);
+            try {
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = zin.read(buf)) >= 0) {
+                    out.write(buf, 0, n);
+                }
+                // Skip anything after the compressed stream.
+                while (src.read(buf, 0, buf.length) >= 0) {
+                    continue;
+                }
+                out.flush();
+            }
+            finally {
+                zin.close();
+            }
+        }
+
+        // Reads the queued chunks, and flushes the output stream before it
+        // blocks waiting for more.
+        private class ChunkInputStream extends InputStream {
+            private final byte[] single = new byte[1];
+            private Chunk cur;
+            private int pos;
+            private boolean end;
+
+            boolean isEmpty() throws IOException {
+                return !next();
+            }
+
+            // GZIPInputStream only looks for another member after the
+            // trailer of a member if this is positive. The next member may
+            // not have been read yet, so unlike InputStream.available, this
+            // blocks until the next chunk or the end has been taken.
+            @Override
+            public int available() throws IOException {
+                return next() ? cur.count - pos : 0;
+            }
+
+            @Override
+            public int read() throws IOException {
+                int n = read(single, 0, 1);
+                return n < 0 ? -1 : single[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!next()) {
+                    return -1;
+                }
+                int n = Math.min(len, cur.count - pos);
+                System.arraycopy(cur.data, pos, b, off, n);
+                pos += n;
+                return n;
+            }
+
+            // Ensures cur has unread data. Returns false at the end.
+            private boolean next() throws IOException {
+                while (cur == null || pos == cur.count) {
+                    if (cur != null) {
+                        release(cur);
+                        cur = null;
+                    }
+                    if (end) {
+                        return false;
+                    }
+                    Chunk c = poll();
+                    try {
+                        if (c == null) {
+                            out.flush();
+                            c = take(-1);
+                        }
+                    }
+                    catch (InterruptedException ie) {
+                        throw new InterruptedIOException();
+                    }
+                    if (c == FLUSH) {
+                        out.flush();
+                    }
+                    else if (c == END) {
+                        end = true;
+                    }
+                    else {
+                        cur = c;
+                        pos = 0;
+                    }
+                }
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+
+package com.hypirion.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+
+/**
+ * A DecoupledPipe is a pipe which reads and writes on different threads. The
+ * pipe reads chunks into buffers from a buffer pool and hands them to a writer
+ * thread through a bounded, lock-free queue. A slow output stream will
+ * therefore not stall reading from the input stream until the queue is full,
+ * so bursty sources, such as processes writing to their standard output, can
+ * keep running while the output stream catches up. The writer runs on a
+ * helper thread of the pipe's group, see {@link PipeGroup}.
+ * <p>
+ * The writer flushes the output stream as the flush policy of the pipe
+ * decides, but only once it has written out all chunks read before the flush.
+ * When a DecoupledPipe finishes, all queued chunks are written out and flushed
+ * before threads waiting in {@link #join()} are released. A DecoupledPipe
+ * does not close any of its streams.
+ *
+ * @author Jean Niklas L'orange
+ * @see Pipe
+ * @since <code>com.hypirion.io 0.4.0</code>
+ */
+public class DecoupledPipe extends Pipe {
+
+    /**
+     * The default number of chunks which can be queued for the writer.
+     */
+    public static final int DEFAULT_QUEUE_DEPTH = 16;
+
+    private final WriteStage stage;
+
+    /**
+     * Creates a new decoupled pipe, which pipes data from the stream
+     * <code>in</code> to the stream <code>out</code> once started.
+     *
+     * @param in the input stream to read from.
+     * @param out the output stream to write to.
+     */
+    public DecoupledPipe(InputStream in, OutputStream out) {
+        this(in, out, DEFAULT_BUFFER_SIZE, DEFAULT_QUEUE_DEPTH);
+    }
+
+    /**
+     * Creates a new decoupled pipe with buffer size <code>bufsize</code>,
+     * which pipes data from the stream <code>in</code> to the stream
+     * <code>out</code> once started. At most <code>depth</code> chunks are
+     * queued for the writer.
+     *
+     * @param in the input stream to read from.
+     * @param out the output stream to write to.
+     * @param bufsize the buffer size of the pipe.
+     * @param depth the maximal number of queued chunks.
+     * @exception IllegalArgumentException if <code>depth &lt;= 0</code>.
+     */
+    public DecoupledPipe(InputStream in, OutputStream out, int bufsize,
+                         int depth) {
+        this(in, out, bufsize, depth, PipeGroup.DEDICATED, BufferPool.shared());
+    }
+
+    /**
+     * Creates a new decoupled pipe with buffer size <code>bufsize</code>,
+     * which pipes data from the stream <code>in</code> to the stream
+     * <code>out</code> once started. At most <code>depth</code> chunks are
+     * queued for the writer, their buffers are taken from <code>pool</code>,
+     * and the pipe runs on a thread from <code>group</code>. The writer runs on
+     * a helper thread of <code>group</code>.
+     *
+     * @param in the input stream to read from.
+     * @param out the output stream to write to.
+     * @param bufsize the buffer size of the pipe.
+     * @param depth the maximal number of queued chunks.
+     * @param group the pipe group to run this pipe in.
+     * @param pool the buffer pool to take chunk buffers from.
+     * @exception IllegalArgumentException if <code>depth &lt;= 0</code>.
+     */
+    public DecoupledPipe(InputStream in, OutputStream out, int bufsize,
+                         int depth, PipeGroup group, BufferPool pool) {
+        this(new WriteStage(in, out, bufsize, depth, pool,
+                                group.helpers()), group);
+    }
+
+    private DecoupledPipe(WriteStage stage, PipeGroup group) {
+        super(stage, group);
+        this.stage = stage;
+    }
+
+    /**
+     * Returns the number of chunks currently queued for the writer.
+     *
+     * @return the number of queued chunks.
+     */
+    public int getQueued() {
+        return stage.queued();
+    }
+
+    /**
+     * Returns the highest number of chunks which have been queued for the
+     * writer at once. If this equals the queue depth, the pipe has had to
+     * wait for the writer.
+     *
+     * @return the peak number of queued chunks.
+     */
+    public long getPeakQueued() {
+        return stage.peakQueued();
+    }
+
+    /**
+     * Returns the maximal number of chunks which can be queued for the
+     * writer.
+     *
+     * @return the queue depth of this pipe.
+     */
+    public int getQueueDepth() {
+        return stage.depth();
+    }
+
+    /**
+     * Waits for the writer to write out and flush all queued chunks. Called by
+     * the pipe once it has finished piping.
+     */
+    @Override
+    protected void pipeFinished() {
+        Throwable t = stage.finish();
+        if (t != null) {
+            failed(t);
+        }
+    }
+
+    private static class WriteStage extends Stage {
+        private final OutputStream out;
+
+        public WriteStage(InputStream in, OutputStream out, int bufsize,
+                          int depth, BufferPool pool, Executor executor) {
+            super(in, bufsize, depth, pool, executor);
+            this.out = out;
+        }
+
+        @Override
+        void process() throws IOException, InterruptedException {
+            while (true) {
+                Chunk c = take(-1);
+                if (c == END) {
+                    out.flush();
+                    return;
+                }
+                if (c == FLUSH) {
+                    out.flush();
+                    continue;
+                }
+                try {
+                    out.write(c.data, 0, c.count);
+                }
+                finally {
+                    release(c);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A FlushPolicy decides when a pipe flushes its output source. Flushing after
+ * every write gives the lowest latency, which is what you want for interactive
+ * pipes, whereas bulk pipes will get higher throughput by flushing rarely.
+ * <p>
+ * Regardless of policy, a pipe will always flush its output source when it is
+ * paused, stopped or reaches the end of its input source. Sizes are measured
+ * in bytes for byte pipes and in chars for character pipes.
+ *
+ * @author Jean Niklas L'orange
+ * @see Pipe#setFlushPolicy(FlushPolicy)
+ * @since <code>com.hypirion.io 0.4.0</code>
+ */
+public final class FlushPolicy {
+
+    /**
+     * Flushes the output source after every write. This is the default policy
+     * of a pipe.
+     */
+    public static final FlushPolicy ALWAYS = new FlushPolicy(0, 0);
+
+    /**
+     * Flushes the output source only when the pipe is paused, stopped or
+     * reaches the end of its input source.
+     */
+    public static final FlushPolicy ON_FINISH =
+        new FlushPolicy(Long.MAX_VALUE, 0);
+
+    private final long size;
+    private final long quietMillis;
+
+    private FlushPolicy(long size, long quietMillis) {
+        this.size = size;
+        this.quietMillis = quietMillis;
+    }
+
+    /**
+     * Returns a policy which flushes the output source once at least
+     * <code>size</code> bytes or chars have been written since the last flush.
+     *
+     * @param size the amount of unflushed data which triggers a flush.
+     * @return a size-based flush policy.
+     * @exception IllegalArgumentException if <code>size &lt;= 0</code>.
+     */
+    public static FlushPolicy afterSize(long size) {
+        return afterSizeOrQuiet(size, 0);
+    }
+
+    /**
+     * Returns a policy which flushes the output source once no data has been
+     * written to it for <code>millis</code> milliseconds.
+     *
+     * @param millis the quiet time in milliseconds which triggers a flush.
+     * @return a time-based flush policy.
+     * @exception IllegalArgumentException if <code>millis &lt;= 0</code>.
+     */
+    public static FlushPolicy afterQuiet(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("millis must be positive");
+        }
+        return new FlushPolicy(Long.MAX_VALUE, millis);
+    }
+
+    /**
+     * Returns a policy which flushes the output source once at least
+     * <code>size</code> bytes or chars have been written since the last flush,
+     * or once no data has been written to it for <code>millis</code>
+     * milliseconds, whichever comes first. A non-positive <code>millis</code>
+     * disables the time-based flushing.
+     *
+     * @param size the amount of unflushed data which triggers a flush.
+     * @param millis the quiet time in milliseconds which triggers a flush.
+     * @return a size- and time-based flush policy.
+     * @exception IllegalArgumentException if <code>size &lt;= 0</code>.
+     */
+    public static FlushPolicy afterSizeOrQuiet(long size, long millis) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        return new FlushPolicy(size, Math.max(millis, 0));
+    }
+
+    boolean flushAfterWrite(long unflushed) {
+        return unflushed >= size;
+    }
+
+    long quietMillis() {
+        return quietMillis;
+    }
+
+    static void schedule(Runnable task, long millis) {
+        Timer.EXECUTOR.schedule(task, millis, TimeUnit.MILLISECONDS);
+    }
+
+    // Lazily creates the timer thread the first time a quiet flush is needed.
+    private static class Timer {
+        static final ScheduledExecutorService EXECUTOR =
+            new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r);
+                        t.setName("FlushPolicyTimer");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A FramingOutputStream splits the data written to it into records separated
+ * by a delimiter byte, and hands every record to a {@link RecordHandler}. Used
+ * as the output source of a {@link Pipe}, it turns the pipe into a line or
+ * record splitter.
+ * <p>
+ * Records are handed over as views into the array given to
+ * <code>.write</code>, which for a pipe is the pipe's own buffer, so no data
+ * is copied and no strings are created. Only records spanning multiple writes
+ * are copied, into a buffer kept by this stream. A record longer than the
+ * maximal record length is split into several records, none of them longer
+ * than the maximal record length, so a missing delimiter can't make this
+ * stream use unbounded memory.
+ * <p>
+ * Flushing this stream does not hand over incomplete records. When this stream
+ * is closed, the data after the last delimiter, if any, is handed over as the
+ * last record.
+ *
+ * @author Jean Niklas L'orange
+ * @see RecordHandler
+ * @since <code>com.hypirion.io 0.4.0</code>
+ */
+public class FramingOutputStream extends OutputStream {
+
+    /**
+     * The default maximal length of a record, in bytes.
+     */
+    public static final int DEFAULT_MAX_RECORD_LENGTH = 1 << 16;
+
+    private final RecordHandler handler;
+    private final byte delimiter;
+    private final int maxRecordLength;
+    private final boolean stripCR;
+    private byte[] carry;
+    private int carried;
+    private boolean split;
+    private boolean closed;
+
+    /**
+     * Creates a new framing output stream which splits records on
+     * <code>delimiter</code> and hands them to <code>handler</code>.
+     *
+     * @param handler the handler to hand records to.
+     * @param delimiter the byte separating records.
+     */
+    public FramingOutputStream(RecordHandler handler, byte delimiter) {
+        this(handler, delimiter, DEFAULT_MAX_RECORD_LENGTH);
+    }
+
+    /**
+     * Creates a new framing output stream which splits records on
+     * <code>delimiter</code> and hands them to <code>handler</code>. Records
+     * are never longer than <code>maxRecordLength</code> bytes.
+     *
+     * @param handler the handler to hand records to.
+     * @param delimiter the byte separating records.
+     * @param maxRecordLength the maximal length of a record.
+     * @exception IllegalArgumentException if <code>maxRecordLength &lt;=
+     * 0</code>.
+     */
+    public FramingOutputStream(RecordHandler handler, byte delimiter,
+                               int maxRecordLength) {
+        this(handler, delimiter, maxRecordLength, false);
+    }
+
+    private FramingOutputStream(RecordHandler handler, byte delimiter,
+                                int maxRecordLength, boolean stripCR) {
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        if (maxRecordLength <= 0) {
+            throw new IllegalArgumentException(
+                "maxRecordLength must be positive");
+        }
+        this.handler = handler;
+        this.delimiter = delimiter;
+        this.maxRecordLength = maxRecordLength;
+        this.stripCR = stripCR;
+        carry = new byte[Math.min(maxRecordLength, 256)];
+        carried = 0;
+        split = false;
+        closed = false;
+    }
+
+    /**
+     * Returns a framing output stream which splits lines terminated by
+     * <code>"\n"</code> or <code>"\r\n"</code>, and hands them to
+     * <code>handler</code> without their line terminators.
+     *
+     * @param handler the handler to hand lines to.
+     * @param maxLineLength the maximal length of a line.
+     * @return a line splitting output stream.
+     * @exception IllegalArgumentException if <code>maxLineLength &lt;=
+     * 0</code>.
+     */
+    public static FramingOutputStream lines(RecordHandler handler,
+                                            int maxLineLength) {
+        return new FramingOutputStream(handler, (byte) '\n', maxLineLength,
+                                       true);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if ((byte) b == delimiter) {
+            emitCarry();
+        }
+        else {
+            int n = room(1);
+            carry[carried] = (byte) b;
+            carried += n;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureOpen();
+        int end = off + len;
+        int start = off;
+        for (int i = off; i < end; i++) {
+            if (b[i] == delimiter) {
+                if (carried > 0) {
+                    append(b, start, i - start);
+                    emitCarry();
+                }
+                else {
+                    emit(b, start, i - start);
+                }
+                start = i + 1;
+            }
+        }
+        append(b, start, end - start);
+    }
+
+    /**
+     * Closes this stream, and hands the data after the last delimiter to the
+     * record handler as the last record, if there is any.
+     *
+     * @exception IOException if the record handler throws an
+     * <code>IOException</code>.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            if (carried > 0) {
+                emitCarry();
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    // Copies a partial record into the carry buffer, handing over the carried
+    // data first whenever the record grows beyond the maximal length.
+    private void append(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = room(len);
+            System.arraycopy(b, off, carry, carried, n);
+            carried += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    // Makes room for up to len more bytes in the carry buffer, and returns how
+    // many bytes there is room for.
+    private int room(int len) throws IOException {
+        if (carried == maxRecordLength) {
+            handler.record(carry, 0, carried);
+            carried = 0;
+            split = true;
+        }
+        int n = Math.min(len, maxRecordLength - carried);
+        if (carried + n > carry.length) {
+            int size = Math.max(carried + n, 2 * carry.length);
+            carry = Arrays.copyOf(carry, Math.min(size, maxRecordLength));
+        }
+        return n;
+    }
+
+    private void emitCarry() throws IOException {
+        int n = carried;
+        boolean wasSplit = split;
+        carried = 0;
+        split = false;
+        emit(carry, 0, n, wasSplit);
+    }
+
+    private void emit(byte[] b, int off, int len) throws IOException {
+        emit(b, off, len, false);
+    }
+
+    // Hands over a complete record, split if it is too long. If the record
+    // was split and all that is left is the carriage return of its line
+    // terminator, there is no record left to hand over.
+    private void emit(byte[] b, int off, int len, boolean split)
+        throws IOException {
+        while (len > maxRecordLength) {
+            handler.record(b, off, maxRecordLength);
+            off += maxRecordLength;
+            len -= maxRecordLength;
+            split = true;
+        }
+        if (stripCR && len > 0 && b[off + len - 1] == '\r') {
+            len--;
+            if (len == 0 && split) {
+                return;
+            }
+        }
+        handler.record(b, off, len);
+    }
+}
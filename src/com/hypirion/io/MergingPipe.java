@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A MergingPipe is a pipe which redirects data from multiple input sources into
+ * a single output source. Every chunk read from an input source is written
+ * whole to the output source, so data from different input sources will never
+ * be interleaved within a chunk. The pipe finishes once all input sources are
+ * empty, or when it is stopped.
+ * <p>
+ * A MergingPipe between channels multiplexes all its input channels with a
+ * single {@link java.nio.channels.Selector}, and therefore only uses a single
+ * thread. The input channels must be selectable, and will be put in
+ * non-blocking mode. As input streams cannot be multiplexed, a MergingPipe
+ * between streams uses one additional helper thread of its pipe group per
+ * input stream, which reads from the stream until it is empty or the pipe is
+ * finished. Helper threads are never taken from a bounded group, see
+ * {@link PipeGroup}.
+ * <p>
+ * A MergingPipe does not close any of its input or output sources.
+ *
+ * @author Jean Niklas L'orange
+ * @see Pipe
+ * @since <code>com.hypirion.io 0.4.0</code>
+ */
+public class MergingPipe extends Pipe {
+
+    private final MergingTransfer transfer;
+
+    /**
+     * Creates a new merging pipe, which redirects data from the streams
+     * <code>in</code> to the stream <code>out</code> once started.
+     *
+     * @param in the input streams to read from.
+     * @param out the output stream to write out to.
+     */
+    public MergingPipe(InputStream[] in, OutputStream out) {
+        this(in, out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new merging pipe with buffer size <code>bufsize</code>, which
+     * redirects data from the streams <code>in</code> to the stream
+     * <code>out</code> once started.
+     *
+     * @param in the input streams to read from.
+     * @param out the output stream to write out to.
+     * @param bufsize the buffer size of the pipe.
+     */
+    public MergingPipe(InputStream[] in, OutputStream out, int bufsize) {
+        this(in, out, bufsize, PipeGroup.DEDICATED);
+    }
+
+    /**
+     * Creates a new merging pipe with buffer size <code>bufsize</code>, which
+     * redirects data from the streams <code>in</code> to the stream
+     * <code>out</code> once started. The pipe will run on a thread from
+     * <code>group</code>, and its stream readers on helper threads of
+     * <code>group</code>.
+     *
+     * @param in the input streams to read from.
+     * @param out the output stream to write out to.
+     * @param bufsize the buffer size of the pipe.
+     * @param group the pipe group to run this pipe in.
+     */
+    public MergingPipe(InputStream[] in, OutputStream out, int bufsize,
+                       PipeGroup group) {
+        this(new StreamTransfer(in, out, bufsize, group.helpers()), group);
+    }
+
+    /**
+     * Creates a new merging pipe, which redirects data from the channels
+     * <code>in</code> to the channel <code>out</code> once started.
+     *
+     * @param in the selectable channels to read from.
+     * @param out the channel to write out to.
+     * @exception IllegalArgumentException if any of the input channels is not
+     * a {@link java.nio.channels.SelectableChannel}.
+     * @exception IOException if an input channel cannot be registered with a
+     * selector.
+     */
+    public MergingPipe(ReadableByteChannel[] in, WritableByteChannel out)
+        throws IOException {
+        this(in, out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new merging pipe with buffer size <code>bufsize</code>, which
+     * redirects data from the channels <code>in</code> to the channel
+     * <code>out</code> once started.
+     *
+     * @param in the selectable channels to read from.
+     * @param out the channel to write out to.
+     * @param bufsize the buffer size of the pipe.
+     * @exception IllegalArgumentException if any of the input channels is not
+     * a {@link java.nio.channels.SelectableChannel}.
+     * @exception IOException if an input channel cannot be registered with a
+     * selector.
+     */
+    public MergingPipe(ReadableByteChannel[] in, WritableByteChannel out,
+                       int bufsize) throws IOException {
+        this(in, out, bufsize, PipeGroup.DEDICATED);
+    }
+
+    /**
+     * Creates a new merging pipe with buffer size <code>bufsize</code>, which
+     * redirects data from the channels <code>in</code> to the channel
+     * <code>out</code> once started. The pipe will run on a thread from
+     * <code>group</code>.
+     *
+     * @param in the selectable channels to read from.
+     * @param out the channel to write out to.
+     * @param bufsize the buffer size of the pipe.
+     * @param group the pipe group to run this pipe in.
+     * @exception IllegalArgumentException if any of the input channels is not
+     * a {@link java.nio.channels.SelectableChannel}.
+     * @exception IOException if an input channel cannot be registered with a
+     * selector.
+     */
+    public MergingPipe(ReadableByteChannel[] in, WritableByteChannel out,
+                       int bufsize, PipeGroup group) throws IOException {
+        this(new SelectorTransfer(in, out, bufsize), group);
+    }
+
+    private MergingPipe(MergingTransfer transfer, PipeGroup group) {
+        super(transfer, group);
+        this.transfer = transfer;
+    }
+
+    @Override
+    void wakeup() {
+        transfer.wakeup();
+    }
+
+    /**
+     * Releases the resources used to read from the input sources. Called by the
+     * pipe once it has finished piping.
+     */
+    @Override
+    protected void pipeFinished() {
+        transfer.close();
+    }
+
+    private interface MergingTransfer extends Transfer {
+        void wakeup();
+        void close();
+    }
+
+    private static class SelectorTransfer implements MergingTransfer {
+        private final Selector selector;
+        private final ByteBuffer buffer;
+        private final WritableByteChannel out;
+        private Iterator<SelectionKey> ready;
+        private int open;
+
+        public SelectorTransfer(ReadableByteChannel[] in,
+                                WritableByteChannel out, int bufsize)
+            throws IOException {
+            for (ReadableByteChannel ch : in) {
+                if (!(ch instanceof SelectableChannel)) {
+                    throw new IllegalArgumentException(
+                        "Input channels must be selectable");
+                }
+            }
+            selector = Selector.open();
+            try {
+                for (ReadableByteChannel ch : in) {
+                    SelectableChannel sc = (SelectableChannel) ch;
+                    sc.configureBlocking(false);
+                    sc.register(selector, SelectionKey.OP_READ);
+                }
+            }
+            catch (IOException ioe) {
+                selector.close();
+                throw ioe;
+            }
+            buffer = ByteBuffer.allocateDirect(bufsize);
+            this.out = out;
+            ready = null;
+            open = in.length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            while (true) {
+                if (ready == null || !ready.hasNext()) {
+                    if (open == 0) {
+                        return -1;
+                    }
+                    selector.select();
+                    ready = selector.selectedKeys().iterator();
+                    if (!ready.hasNext()) {
+                        return 0; // Woken up, let the pumper check its state
+                    }
+                }
+                SelectionKey key = ready.next();
+                ready.remove();
+                buffer.clear();
+                int count = ((ReadableByteChannel) key.channel()).read(buffer);
+                if (count < 0) {
+                    key.cancel();
+                    open--;
+                }
+                else if (count > 0) {
+                    return count;
+                }
+            }
+        }
+
+        @Override
+        public void write(int count) throws IOException {
+            if (count == 0) {
+                // Woken up, the buffer still holds the previous chunk.
+                return;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+
+        @Override
+        public void flush() {
+            // Channels have no buffers to flush.
+        }
+
+        @Override
+        public void wakeup() {
+            selector.wakeup();
+        }
+
+        @Override
+        public void close() {
+            try {
+                selector.close();
+            }
+            catch (IOException ioe) {
+                // Nothing we can do about it.
+            }
+        }
+    }
+
+    private static class Chunk {
+        final byte[] data;
+        int count;
+        IOException failure;
+
+        Chunk(int bufsize) {
+            data = new byte[bufsize];
+        }
+    }
+
+    private static class StreamTransfer implements MergingTransfer {
+        // Markers which are put on the filled queue to wake up the pumper.
+        private static final Chunk WAKEUP = new Chunk(0);
+        private static final Chunk EOF = new Chunk(0);
+
+        private final InputStream[] in;
+        private final OutputStream out;
+        private final Executor readers;
+        private final BlockingQueue<Chunk> free, filled;
+        private final AtomicInteger open;
+        private volatile boolean closed;
+        private boolean readersStarted;
+        private Chunk current;
+
+        public StreamTransfer(InputStream[] in, OutputStream out, int bufsize,
+                              Executor readers) {
+            this.in = in.clone();
+            this.out = out;
+            this.readers = readers;
+            free = new LinkedBlockingQueue<Chunk>();
+            filled = new LinkedBlockingQueue<Chunk>();
+            // Two chunks per stream lets a reader read while its last chunk
+            // is being written.
+            for (int i = 0; i < 2 * in.length; i++) {
+                free.add(new Chunk(bufsize));
+            }
+            open = new AtomicInteger(in.length);
+            closed = false;
+            readersStarted = false;
+            current = null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!readersStarted) {
+                readersStarted = true;
+                for (InputStream is : in) {
+                    readers.execute(new StreamReader(is));
+                }
+            }
+            try {
+                while (true) {
+                    // Readers put their last chunk before they decrement open.
+                    if (open.get() == 0 && filled.isEmpty()) {
+                        return -1;
+                    }
+                    Chunk c = filled.take();
+                    if (c == WAKEUP) {
+                        return 0;
+                    }
+                    if (c == EOF) {
+                        continue;
+                    }
+                    if (c.failure != null) {
+                        throw c.failure;
+                    }
+                    current = c;
+                    return c.count;
+                }
+            }
+            catch (InterruptedException ie) {
+                throw new InterruptedIOException();
+            }
+        }
+
+        @Override
+        public void write(int count) throws IOException {
+            Chunk c = current;
+            if (c == null) {
+                // Woken up, there is no chunk to write.
+                return;
+            }
+            current = null;
+            try {
+                out.write(c.data, 0, count);
+            }
+            finally {
+                free.add(c);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void wakeup() {
+            filled.add(WAKEUP);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            // Release readers waiting for a free chunk.
+            for (int i = 0; i < in.length; i++) {
+                free.add(new Chunk(0));
+            }
+        }
+
+        private class StreamReader implements Runnable {
+            private final InputStream is;
+
+            public StreamReader(InputStream is) {
+                this.is = is;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    while (!closed) {
+                        Chunk c = free.take();
+                        if (closed) {
+                            return;
+                        }
+                        try {
+                            c.count = is.read(c.data);
+                        }
+                        catch (IOException ioe) {
+                            c.failure = ioe;
+                            filled.add(c);
+                            return;
+                        }
+                        if (c.count < 0) {
+                            free.add(c);
+                            return;
+                        }
+                        filled.add(c);
+                    }
+                }
+                catch (InterruptedException ie) {
+                    // Treat as end of stream.
+                }
+                finally {
+                    open.decrementAndGet();
+                    filled.add(EOF);
+                }
+            }
+        }
+    }
+}
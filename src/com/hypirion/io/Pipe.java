@@ -18,6 +18,11 @@ import java.io.OutputStream;
 import java.io.IOException;
 import java.io.Writer;
 import java.io.Reader;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * A Pipe is a link between an input stream and an output stream or a reader or
@@ -40,9 +45,51 @@ public class Pipe {
      */
     public static final int DEFAULT_BUFFER_SIZE = 1024;
 
-    private final Thread pumper;
+    /**
+     * The states a pipe can be in.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public enum State {
+        /** The pipe has not yet been started. */
+        NEW,
+        /** The pipe is running. */
+        RUNNING,
+        /** The pipe has been paused. */
+        PAUSED,
+        /** The pipe has been stopped, but its last read has not finished. */
+        STOPPING,
+        /** The pipe has finished piping. */
+        FINISHED
+    }
+
+    // The pumper is the only writer of its statistics, so it publishes them
+    // with lazySet instead of paying for a full volatile write per chunk.
+    private static final AtomicLongFieldUpdater<Pumper> TRANSFERRED =
+        AtomicLongFieldUpdater.newUpdater(Pumper.class, "transferred");
+    private static final AtomicLongFieldUpdater<Pumper> READS =
+        AtomicLongFieldUpdater.newUpdater(Pumper.class, "reads");
+    private static final AtomicLongFieldUpdater<Pumper> READ_NANOS =
+        AtomicLongFieldUpdater.newUpdater(Pumper.class, "readNanos");
+    private static final AtomicLongFieldUpdater<Pumper> WRITE_NANOS =
+        AtomicLongFieldUpdater.newUpdater(Pumper.class, "writeNanos");
+    private static final AtomicLongFieldUpdater<Pumper> LAST_ACTIVITY =
+        AtomicLongFieldUpdater.newUpdater(Pumper.class, "lastActivity");
+    private static final AtomicIntegerFieldUpdater<Pipe> CONTROL =
+        AtomicIntegerFieldUpdater.newUpdater(Pipe.class, "control");
+
+    private final Pumper pumper;
+    private final PipeGroup group;
     private final Object lock;
     private volatile boolean currentlyRunning, stopped;
+    // Bumped whenever the state or settings of this pipe change, so that a
+    // running pumper only has to read this field per chunk.
+    private volatile int control;
+    private volatile FlushPolicy flushPolicy;
+    private volatile BufferSizing sizing;
+    private volatile Throttle throttle;
+    private volatile Throwable failure;
+    private final List<PipeListener> listeners;
+    private boolean started, active, finishing, notifying, finished;
 
     /**
      * Creates a new pipe, which redirects data from the stream <code>in</code>
@@ -65,14 +112,42 @@ public class Pipe {
      * @param bufsize the buffer size of the pipe.
      */
     public Pipe(InputStream in, OutputStream out, int bufsize) {
-        Runnable pt = new PipeOutputStream(in, out, bufsize);
-        lock = new Object();
-        currentlyRunning = false;
-        stopped = false;
-        pumper = new Thread(pt);
-        pumper.setName(String.format("PipeThread %d", this.hashCode()));
-        pumper.setDaemon(true);
-        pumper.start();
+        this(in, out, bufsize, PipeGroup.DEDICATED);
+    }
+
+    /**
+     * Creates a new pipe with buffer size <code>bufsize</code>, which redirects
+     * data from the stream <code>in</code> to the stream <code>out</code> once
+     * started. The pipe will run on a thread from <code>group</code>.
+     *
+     * @param in the input stream to read from.
+     * @param out the output stream to write out to.
+     * @param bufsize the buffer size of the pipe.
+     * @param group the pipe group to run this pipe in.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public Pipe(InputStream in, OutputStream out, int bufsize,
+                PipeGroup group) {
+        this(in, out, bufsize, group, BufferPool.shared());
+    }
+
+    /**
+     * Creates a new pipe with buffer size <code>bufsize</code>, which redirects
+     * data from the stream <code>in</code> to the stream <code>out</code> once
+     * started. The pipe will run on a thread from <code>group</code>, and take
+     * its buffer from <code>pool</code>. The buffer is released to the pool
+     * once the pipe has finished.
+     *
+     * @param in the input stream to read from.
+     * @param out the output stream to write out to.
+     * @param bufsize the buffer size of the pipe.
+     * @param group the pipe group to run this pipe in.
+     * @param pool the buffer pool to take buffers from.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public Pipe(InputStream in, OutputStream out, int bufsize,
+                PipeGroup group, BufferPool pool) {
+        this(new PipeOutputStream(in, out, bufsize, pool), group);
     }
 
     /**
@@ -96,14 +171,238 @@ public class Pipe {
      * @param bufsize the buffer size of the pipe.
      */
     public Pipe(Reader in, Writer out, int bufsize) {
-        Runnable pt = new PipeWriter(in, out, bufsize);
+        this(in, out, bufsize, PipeGroup.DEDICATED);
+    }
+
+    /**
+     * Creates a new pipe with buffer size <code>bufsize</code>, which redirects
+     * data from the reader <code>in</code> to the writer <code>out</code> once
+     * started. The pipe will run on a thread from <code>group</code>.
+     *
+     * @param in the reader to read from.
+     * @param out the writer to write out to.
+     * @param bufsize the buffer size of the pipe.
+     * @param group the pipe group to run this pipe in.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public Pipe(Reader in, Writer out, int bufsize, PipeGroup group) {
+        this(in, out, bufsize, group, BufferPool.shared());
+    }
+
+    /**
+     * Creates a new pipe with buffer size <code>bufsize</code>, which redirects
+     * data from the reader <code>in</code> to the writer <code>out</code> once
+     * started. The pipe will run on a thread from <code>group</code>, and take
+     * its buffer from <code>pool</code>. The buffer is released to the pool
+     * once the pipe has finished.
+     *
+     * @param in the reader to read from.
+     * @param out the writer to write out to.
+     * @param bufsize the buffer size of the pipe.
+     * @param group the pipe group to run this pipe in.
+     * @param pool the buffer pool to take buffers from.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public Pipe(Reader in, Writer out, int bufsize, PipeGroup group,
+                BufferPool pool) {
+        this(new PipeWriter(in, out, bufsize, pool), group);
+    }
+
+    Pipe(Transfer transfer, PipeGroup group) {
+        if (group == null) {
+            throw new NullPointerException("group");
+        }
         lock = new Object();
         currentlyRunning = false;
+        control = 0;
         stopped = false;
-        pumper = new Thread(pt);
-        pumper.setName(String.format("PipeThread %d", this.hashCode()));
-        pumper.setDaemon(true);
-        pumper.start();
+        started = false;
+        active = false;
+        finishing = false;
+        notifying = false;
+        finished = false;
+        flushPolicy = FlushPolicy.ALWAYS;
+        sizing = null;
+        throttle = null;
+        failure = null;
+        listeners = new CopyOnWriteArrayList<PipeListener>();
+        this.group = group;
+        pumper = new Pumper(transfer);
+    }
+
+    /**
+     * Sets the flush policy of this pipe, which decides how often the output
+     * source is flushed. The new policy applies from the next write. The
+     * default policy is {@link FlushPolicy#ALWAYS}.
+     *
+     * @param policy the flush policy to use.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public void setFlushPolicy(FlushPolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException("policy");
+        }
+        flushPolicy = policy;
+        signal();
+    }
+
+    /**
+     * Returns the flush policy of this pipe.
+     *
+     * @return the flush policy of this pipe.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    /**
+     * Sets the throttle of this pipe, which limits the rate at which it
+     * transfers data. Pipes with the same throttle share its budget. A
+     * <code>null</code> throttle lets this pipe run at full speed, which is
+     * the default. The new throttle applies from the next read.
+     * <p>
+     * A throttled pipe which is paused or stopped while waiting for its
+     * throttle will stop waiting and write the chunk it has already read.
+     *
+     * @param throttle the throttle to use, or <code>null</code>.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public void setThrottle(Throttle throttle) {
+        this.throttle = throttle;
+        signal();
+    }
+
+    /**
+     * Returns the throttle of this pipe, or <code>null</code> if this pipe is
+     * not throttled.
+     *
+     * @return the throttle of this pipe, or <code>null</code>.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public Throttle getThrottle() {
+        return throttle;
+    }
+
+    /**
+     * Makes this pipe adapt its buffer size to the size of its reads. The
+     * buffer is doubled when reads repeatedly fill it, and halved when reads
+     * repeatedly use only a fraction of it, but will stay within
+     * <code>min</code> and <code>max</code>. Both limits are rounded up to the
+     * nearest power of two, and buffers are taken from and given back to the
+     * buffer pool of this pipe. Calling this method with <code>min ==
+     * max</code> fixes the buffer size.
+     * <p>
+     * The pipe resizes its buffer between reads, so the new limits apply from
+     * the next read. Only pipes between streams or between readers and writers
+     * have a buffer which can be resized.
+     *
+     * @param min the minimal buffer size.
+     * @param max the maximal buffer size.
+     * @exception IllegalArgumentException if <code>min &lt;= 0</code> or
+     * <code>min &gt; max</code>.
+     * @exception UnsupportedOperationException if this pipe doesn't have a
+     * resizable buffer.
+     * @see #getBufferSize()
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public void setAdaptiveBufferSize(int min, int max) {
+        if (min <= 0 || min > max) {
+            throw new IllegalArgumentException("Must have 0 < min <= max");
+        }
+        if (!(pumper.transfer instanceof Resizable)) {
+            throw new UnsupportedOperationException("Buffer is not resizable");
+        }
+        sizing = new BufferSizing(BufferPool.sizeClass(min),
+                                  BufferPool.sizeClass(max));
+        signal();
+    }
+
+    /**
+     * Returns the current buffer size of this pipe, or <code>-1</code> if this
+     * pipe doesn't have a single buffer.
+     *
+     * @return the current buffer size of this pipe.
+     * @see #setAdaptiveBufferSize(int, int)
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public int getBufferSize() {
+        return pumper.bufferSize;
+    }
+
+    /**
+     * Returns the current state of this pipe.
+     *
+     * @return the current state of this pipe.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public State getState() {
+        synchronized (lock) {
+            if (finished) {
+                return State.FINISHED;
+            }
+            if (stopped) {
+                return State.STOPPING;
+            }
+            if (currentlyRunning) {
+                return State.RUNNING;
+            }
+            return started ? State.PAUSED : State.NEW;
+        }
+    }
+
+    /**
+     * Returns a snapshot of the statistics of this pipe. Taking a snapshot is
+     * cheap and does not disturb the pipe.
+     *
+     * @return a snapshot of the statistics of this pipe.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public PipeStats getStats() {
+        Pumper p = pumper;
+        long lastActivity = p.lastActivity;
+        if (lastActivity != 0) {
+            long agoMillis = (System.nanoTime() - lastActivity) / 1000000;
+            lastActivity = System.currentTimeMillis() - agoMillis;
+        }
+        return new PipeStats(getState(), p.transferred, p.reads, p.readNanos,
+                             p.writeNanos, lastActivity, p.bufferSize);
+    }
+
+    /**
+     * Returns an MXBean which exposes the statistics of this pipe. The MXBean
+     * can be registered in an MBean server, e.g. through
+     * <pre>
+     * ManagementFactory.getPlatformMBeanServer()
+     *     .registerMBean(pipe.asMXBean(), name);</pre>
+     *
+     * @return an MXBean for this pipe.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public PipeMXBean asMXBean() {
+        return new PipeMXBean() {
+            public State getState() {
+                return Pipe.this.getState();
+            }
+            public long getTransferred() {
+                return pumper.transferred;
+            }
+            public long getReads() {
+                return pumper.reads;
+            }
+            public long getReadNanos() {
+                return pumper.readNanos;
+            }
+            public long getWriteNanos() {
+                return pumper.writeNanos;
+            }
+            public long getLastActivity() {
+                return getStats().getLastActivity();
+            }
+            public int getBufferSize() {
+                return pumper.bufferSize;
+            }
+        };
     }
 
     /**
@@ -117,7 +416,83 @@ public class Pipe {
      * @see #stop(boolean)
      */
     public void join() throws InterruptedException {
-        pumper.join();
+        synchronized (lock) {
+            while (!finished) {
+                lock.wait();
+            }
+        }
+    }
+
+    /**
+     * Waits for this pipe to finish piping, and throws the exception which made
+     * this pipe fail, if any. Exceptions which are not
+     * <code>IOException</code>s are wrapped in an <code>IOException</code>.
+     *
+     * @exception InterruptedException if this thread is interrupted while
+     * waiting.
+     * @exception IOException if this pipe failed.
+     *
+     * @see #join()
+     * @see #getFailure()
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public void joinOrThrow() throws InterruptedException, IOException {
+        join();
+        Throwable t = failure;
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        }
+        if (t != null) {
+            throw new IOException(t);
+        }
+    }
+
+    /**
+     * Returns the exception which made this pipe fail, or <code>null</code> if
+     * the pipe has not failed. A pipe fails if reading from the input source or
+     * writing to the output source throws an exception. A failed pipe is
+     * finished, and will not pipe any more data.
+     *
+     * @return the exception which made this pipe fail, or <code>null</code>.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Adds a listener which is called once this pipe has finished piping,
+     * either because it was stopped, because the input source was empty or
+     * because it failed. The listener is called on the thread finishing the
+     * pipe, before threads waiting in {@link #join()} are released. If this
+     * pipe has already finished, the listener is called immediately on the
+     * calling thread.
+     *
+     * @param listener the listener to add.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public void addListener(PipeListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        synchronized (lock) {
+            if (!notifying) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.pipeFinished(this, failure);
+    }
+
+    /**
+     * Removes a listener previously added to this pipe. If the listener is not
+     * listening on this pipe, this method does nothing.
+     *
+     * @param listener the listener to remove.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public void removeListener(PipeListener listener) {
+        listeners.remove(listener);
     }
 
     /**
@@ -128,8 +503,30 @@ public class Pipe {
     public synchronized void start() {
         if (!stopped) {
             synchronized (lock) {
+                if (finishing) {
+                    return;
+                }
                 currentlyRunning = true;
-                lock.notify(); // Wake up the pumper if it's waiting.
+                signal();
+                started = true;
+                if (active) {
+                    // The pumper is still finishing a blocking read, and will
+                    // continue as it will see that we're running.
+                    return;
+                }
+                active = true;
+            }
+            try {
+                group.execute(pumper);
+            }
+            catch (RuntimeException re) {
+                synchronized (lock) {
+                    active = false;
+                    currentlyRunning = false;
+                    signal();
+                    lock.notifyAll();
+                }
+                throw re;
             }
         }
     }
@@ -163,11 +560,14 @@ public class Pipe {
         if (!stopped) {
             synchronized (lock) {
                 currentlyRunning = false;
-                lock.notify();
+                signal();
+                wakeup();
                 if (block) {
-                    lock.wait();
-                    // Wait for signal from pumper, which will start after we
-                    // release the lock
+                    while (active) {
+                        lock.wait();
+                        // Wait for the pumper to hand back its thread, which
+                        // it does after its current blocking read.
+                    }
                 }
             }
         } else if (block) {
@@ -200,10 +600,16 @@ public class Pipe {
      */
     public synchronized void stop(boolean block) throws InterruptedException {
         if (!stopped) {
+            boolean idle;
             synchronized (lock) {
                 currentlyRunning = false;
+                signal();
                 stopped = true;
-                lock.notify();
+                idle = !active && claimFinish();
+            }
+            wakeup();
+            if (idle) {
+                finish();
             }
         }
         if (block) {
@@ -211,81 +617,463 @@ public class Pipe {
         }
     }
 
-    private class PipeOutputStream implements Runnable {
-        private final byte[] data;
-        private final InputStream in;
-        private final OutputStream out;
+    /**
+     * Called once this pipe has finished piping, before any listeners are
+     * notified and before threads waiting in {@link #join()} are released. The
+     * call is done by the thread which finished the pipe, which is either the
+     * pipe's own thread or the thread stopping an idle pipe. By default, this
+     * method does nothing.
+     *
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    protected void pipeFinished() {
+        // Nothing to do by default.
+    }
 
-        public PipeOutputStream(InputStream in, OutputStream out, int bufsize) {
-            data = new byte[bufsize];
-            this.in = in;
-            this.out = out;
+    /**
+     * Records <code>t</code> as the failure of this pipe, unless the pipe has
+     * already failed. Must only be called before this pipe has finished, e.g.
+     * from {@link #pipeFinished()}.
+     */
+    void failed(Throwable t) {
+        if (failure == null) {
+            failure = t;
+        }
+    }
+
+    /**
+     * Makes the pumper look at the state and settings of this pipe again.
+     * Must be called after changing them.
+     */
+    private void signal() {
+        CONTROL.incrementAndGet(this);
+    }
+
+    /**
+     * Wakes up the pumper if it is waiting for data in a way which can be
+     * interrupted. Called when this pipe is paused or stopped, must not block.
+     * By default, this method does nothing.
+     */
+    void wakeup() {
+        // Blocking reads from streams cannot be woken up.
+    }
+
+    // Must be called while holding lock. Returns true if the caller is
+    // responsible for calling finish().
+    private boolean claimFinish() {
+        if (finishing) {
+            return false;
+        }
+        finishing = true;
+        return true;
+    }
+
+    private void finish() {
+        try {
+            pumper.releaseBuffer();
+            pipeFinished();
+        }
+        finally {
+            synchronized (lock) {
+                notifying = true;
+            }
+            try {
+                for (PipeListener listener : listeners) {
+                    listener.pipeFinished(this, failure);
+                }
+            }
+            finally {
+                synchronized (lock) {
+                    finished = true;
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private class Pumper implements Runnable {
+        private final Transfer transfer;
+        private final Object flushLock;
+        private final Runnable quietFlusher;
+        private long unflushed, lastWrite;
+        // Guarded by flushLock. The pumper keeps its own copy, which is only
+        // refreshed while holding flushLock, so that it only has to take the
+        // lock while a quiet flush may be scheduled.
+        private boolean flushScheduled, mayBeScheduled;
+
+        // Statistics. Only written by the pumper, lastActivity is in nanoTime.
+        volatile long transferred, reads, readNanos, writeNanos, lastActivity;
+        volatile int bufferSize;
+
+        public Pumper(Transfer transfer) {
+            this.transfer = transfer;
+            bufferSize = transfer instanceof Resizable
+                ? ((Resizable) transfer).bufferSize() : -1;
+            flushLock = new Object();
+            quietFlusher = new QuietFlusher();
+            unflushed = 0;
+            flushScheduled = false;
+            mayBeScheduled = false;
         }
 
         @Override
         public void run() {
+            boolean done = false;
+            // Differs from control until it has been read, as control only
+            // grows.
+            int seen = control - 1;
+            FlushPolicy policy = null;
+            Throttle th = null;
+            BufferSizing s = null;
+            // The pumper is the only writer of its statistics, so it keeps
+            // them in locals instead of reading them back.
+            long nReads = reads;
+            long nReadNanos = readNanos;
+            long nTransferred = transferred;
+            long nWriteNanos = writeNanos;
             try {
-                outer:
                 while (true) {
-                    synchronized (lock) {
-                        while (!currentlyRunning) {
-                            if (stopped) {
-                                break outer;
+                    // Control is the only volatile field a running pipe reads
+                    // per chunk. The state and settings are only read when it
+                    // has changed, and the lock is only taken when pausing or
+                    // stopping.
+                    int c = control;
+                    if (c != seen) {
+                        seen = c;
+                        if (!currentlyRunning) {
+                            flushPending();
+                            synchronized (lock) {
+                                if (!currentlyRunning) {
+                                    active = false;
+                                    done = stopped && claimFinish();
+                                    lock.notifyAll();
+                                    break;
+                                }
                             }
-                            lock.wait();
-                            lock.notify();
                         }
+                        policy = flushPolicy;
+                        th = throttle;
+                        s = sizing;
                     }
-                    int count = in.read(data);
+                    long t0 = System.nanoTime();
+                    int count = transfer.read();
+                    long t1 = System.nanoTime();
+                    READS.lazySet(this, ++nReads);
+                    READ_NANOS.lazySet(this, nReadNanos += t1 - t0);
+                    LAST_ACTIVITY.lazySet(this, t1);
                     if (count < 0) {
+                        flushPending();
+                        done = endOfInput();
                         break;
                     }
-                    out.write(data, 0, count);
-                    out.flush();
+                    if (th != null) {
+                        await(th.reserve(count));
+                        t1 = System.nanoTime();
+                    }
+                    write(count, policy);
+                    long t2 = System.nanoTime();
+                    TRANSFERRED.lazySet(this, nTransferred += count);
+                    WRITE_NANOS.lazySet(this, nWriteNanos += t2 - t1);
+                    LAST_ACTIVITY.lazySet(this, t2);
+                    if (s != null) {
+                        resize(s.adapt(bufferSize, count));
+                    }
+                }
+            }
+            catch (Throwable t) {
+                failure = t;
+                done = endOfInput();
+            }
+            if (done) {
+                finish();
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+        }
+
+        private void write(int count, FlushPolicy policy) throws IOException {
+            long quiet = policy.quietMillis();
+            if (quiet <= 0 && !mayBeScheduled) {
+                transfer.write(count);
+                unflushed += count;
+                if (policy.flushAfterWrite(unflushed)) {
+                    transfer.flush();
+                    unflushed = 0;
+                }
+                return;
+            }
+            // The quiet flusher may flush from another thread, so we must
+            // ensure it doesn't do so in the middle of a write.
+            synchronized (flushLock) {
+                transfer.write(count);
+                unflushed += count;
+                lastWrite = System.nanoTime();
+                if (policy.flushAfterWrite(unflushed)) {
+                    transfer.flush();
+                    unflushed = 0;
+                }
+                else if (quiet > 0 && !flushScheduled) {
+                    flushScheduled = true;
+                    FlushPolicy.schedule(quietFlusher, quiet);
+                }
+                mayBeScheduled = flushScheduled;
+            }
+        }
+
+        // Parks until nanos have passed or this pipe is paused or stopped. A
+        // pipe being paused can't wake us up, so park in short slices.
+        private void await(long nanos) {
+            long deadline = System.nanoTime() + nanos;
+            while (nanos > 0 && currentlyRunning) {
+                LockSupport.parkNanos(Math.min(nanos, 10000000L));
+                nanos = deadline - System.nanoTime();
+            }
+        }
+
+        private void resize(int size) {
+            if (size != bufferSize) {
+                ((Resizable) transfer).resize(size);
+                bufferSize = size;
+            }
+        }
+
+        // Only called when the pumper has finished.
+        void releaseBuffer() {
+            if (transfer instanceof Resizable) {
+                ((Resizable) transfer).release();
+            }
+        }
+
+        private void flushPending() throws IOException {
+            synchronized (flushLock) {
+                if (unflushed > 0) {
+                    transfer.flush();
+                    unflushed = 0;
+                }
+            }
+        }
+
+        private boolean endOfInput() {
+            synchronized (lock) {
+                active = false;
+                currentlyRunning = false;
+                stopped = true;
+                lock.notifyAll();
+                return claimFinish();
+            }
+        }
+
+        private class QuietFlusher implements Runnable {
+            @Override
+            public void run() {
+                synchronized (flushLock) {
+                    flushScheduled = false;
+                    if (unflushed == 0) {
+                        return;
+                    }
+                    long quiet = flushPolicy.quietMillis();
+                    long idle = (System.nanoTime() - lastWrite) / 1000000;
+                    if (0 < quiet && idle < quiet) {
+                        flushScheduled = true;
+                        FlushPolicy.schedule(this, quiet - idle);
+                        return;
+                    }
+                    try {
+                        transfer.flush();
+                        unflushed = 0;
+                    }
+                    catch (IOException ioe) {
+                        // The pumper will notice on its next write.
+                    }
                 }
             }
-            catch (Exception e) {
-                // Die silently for now.
+        }
+    }
+
+    interface Transfer {
+        /**
+         * Reads a single chunk of data from the input source. Returns the size
+         * of the chunk, or -1 if the input source is empty.
+         */
+        int read() throws IOException;
+
+        /**
+         * Writes the last chunk read, of size <code>count</code>, to the output
+         * source.
+         */
+        void write(int count) throws IOException;
+
+        /**
+         * Flushes the output source.
+         */
+        void flush() throws IOException;
+    }
+
+    interface Resizable extends Transfer {
+        /**
+         * Returns the size of the buffer.
+         */
+        int bufferSize();
+
+        /**
+         * Replaces the buffer with one of size <code>size</code> from the
+         * buffer pool, and releases the old one to it.
+         */
+        void resize(int size);
+
+        /**
+         * Releases the buffer to the buffer pool. The transfer must not be used
+         * afterwards.
+         */
+        void release();
+    }
+
+    // Decides the buffer size of an adaptive pipe. Only used by the pumper.
+    private static class BufferSizing {
+        // Reads in a row which must fill or underuse the buffer to resize it.
+        private static final int GROW_AFTER = 4;
+        private static final int SHRINK_AFTER = 16;
+
+        private final int min, max;
+        private int full, small;
+
+        public BufferSizing(int min, int max) {
+            this.min = min;
+            this.max = max;
+            full = 0;
+            small = 0;
+        }
+
+        public int adapt(int size, int count) {
+            int target = size;
+            if (size < min) {
+                target = min;
+            }
+            else if (size > max) {
+                target = max;
+            }
+            else if (count >= size) {
+                small = 0;
+                if (++full >= GROW_AFTER && size < max) {
+                    target = Math.min(size * 2, max);
+                }
+            }
+            else if (count <= size / 4) {
+                full = 0;
+                if (++small >= SHRINK_AFTER && size > min) {
+                    target = Math.max(size / 2, min);
+                }
+            }
+            else {
+                full = 0;
+                small = 0;
+            }
+            if (target != size) {
+                full = 0;
+                small = 0;
             }
+            return target;
         }
     }
 
-    private class PipeWriter implements Runnable {
-        private final char[] data;
+    private static class PipeOutputStream implements Resizable {
+        private byte[] data;
+        private int size;
+        private final InputStream in;
+        private final OutputStream out;
+        private final BufferPool pool;
+
+        public PipeOutputStream(InputStream in, OutputStream out, int bufsize,
+                                BufferPool pool) {
+            data = pool.acquireBytes(bufsize);
+            size = bufsize;
+            this.in = in;
+            this.out = out;
+            this.pool = pool;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return in.read(data, 0, size);
+        }
+
+        @Override
+        public void write(int count) throws IOException {
+            out.write(data, 0, count);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public int bufferSize() {
+            return size;
+        }
+
+        @Override
+        public void resize(int size) {
+            byte[] old = data;
+            data = pool.acquireBytes(size);
+            this.size = size;
+            pool.release(old);
+        }
+
+        @Override
+        public void release() {
+            pool.release(data);
+        }
+    }
+
+    private static class PipeWriter implements Resizable {
+        private char[] data;
+        private int size;
         private final Reader in;
         private final Writer out;
+        private final BufferPool pool;
 
-        public PipeWriter(Reader in, Writer out, int bufsize) {
-            data = new char[bufsize];
+        public PipeWriter(Reader in, Writer out, int bufsize,
+                          BufferPool pool) {
+            data = pool.acquireChars(bufsize);
+            size = bufsize;
             this.in = in;
             this.out = out;
+            this.pool = pool;
         }
 
         @Override
-        public void run() {
-            try {
-                outer:
-                while (true) {
-                    synchronized (lock) {
-                        while (!currentlyRunning) {
-                            if (stopped) {
-                                break outer;
-                            }
-                            lock.wait();
-                            lock.notify();
-                        }
-                    }
-                    int count = in.read(data);
-                    if (count < 0) {
-                        break;
-                    }
-                    out.write(data, 0, count);
-                    out.flush();
-                }
-            }
-            catch (Exception e) {
-                // Die silently for now.
-            }
+        public int read() throws IOException {
+            return in.read(data, 0, size);
+        }
+
+        @Override
+        public void write(int count) throws IOException {
+            out.write(data, 0, count);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public int bufferSize() {
+            return size;
+        }
+
+        @Override
+        public void resize(int size) {
+            char[] old = data;
+            data = pool.acquireChars(size);
+            this.size = size;
+            pool.release(old);
+        }
+
+        @Override
+        public void release() {
+            pool.release(data);
         }
     }
 }
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A PipeGroup is a set of threads shared by multiple pipes. A pipe only
+ * occupies a thread in its group while it is running: When a pipe is paused,
+ * stopped or reaches the end of its input source, the thread is handed back to
+ * the group and may be used by other pipes.
+ * <p>
+ * Pipes created without a group use {@link #DEDICATED}, which gives every
+ * running pipe a thread of its own. For large amounts of pipes, a bounded group
+ * created through {@link #fixed(int)} or a group of virtual threads created
+ * through {@link #virtual()} is usually a better fit.
+ * <p>
+ * Note that a running pipe holds on to its thread while it waits for a
+ * blocking read. If a bounded group has fewer threads than there are running
+ * pipes, the remaining pipes will not pipe any data before another pipe in the
+ * group is paused, stopped or reaches the end of its input source.
+ * <p>
+ * Some pipes, like {@link DecoupledPipe} and {@link MergingPipe}, need helper
+ * threads besides the one running the pipe, and can't make progress without
+ * them. Helper threads are only taken from groups which give every task a
+ * thread of its own, like {@link #DEDICATED} and {@link #virtual()}. Other
+ * groups have their helper tasks run on shared daemon threads outside the
+ * group, so that a bounded group never deadlocks by running out of threads
+ * for the helpers of the pipes it runs.
+ *
+ * @author Jean Niklas L'orange
+ * @see Pipe
+ * @since <code>com.hypirion.io 0.4.0</code>
+ */
+public class PipeGroup implements Executor {
+
+    // Runs helper tasks for groups which may run out of threads.
+    private static final Executor HELPERS =
+        Executors.newCachedThreadPool(new DaemonThreadFactory("PipeHelper"));
+
+    /**
+     * The default pipe group, which gives every running pipe its own daemon
+     * thread.
+     */
+    public static final PipeGroup DEDICATED =
+        new PipeGroup(new ThreadPerTaskExecutor(
+                          new DaemonThreadFactory("PipeThread")), true);
+
+    private final Executor executor;
+    private final Executor helpers;
+
+    /**
+     * Creates a new pipe group which runs its pipes through
+     * <code>executor</code>.
+     *
+     * @param executor the executor to run pipes on.
+     */
+    public PipeGroup(Executor executor) {
+        this(executor, false);
+    }
+
+    private PipeGroup(Executor executor, boolean unbounded) {
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        this.executor = executor;
+        this.helpers = unbounded ? executor : HELPERS;
+    }
+
+    /**
+     * Creates a new pipe group with at most <code>nThreads</code> daemon
+     * threads.
+     *
+     * @param nThreads the maximal number of threads in this group.
+     * @return a new pipe group with a bounded number of threads.
+     * @exception IllegalArgumentException if <code>nThreads &lt;= 0</code>.
+     */
+    public static PipeGroup fixed(int nThreads) {
+        if (nThreads <= 0) {
+            throw new IllegalArgumentException("nThreads must be positive");
+        }
+        ThreadFactory tf = new DaemonThreadFactory("PipeGroupThread");
+        return new PipeGroup(Executors.newFixedThreadPool(nThreads, tf));
+    }
+
+    /**
+     * Creates a new pipe group which runs every running pipe on its own virtual
+     * thread. If the JVM doesn't support virtual threads, the group will
+     * instead reuse idle daemon threads, and create new ones whenever none are
+     * idle.
+     *
+     * @return a new pipe group using virtual threads if available.
+     */
+    public static PipeGroup virtual() {
+        ThreadFactory tf = virtualThreadFactory();
+        if (tf != null) {
+            return new PipeGroup(new ThreadPerTaskExecutor(tf), true);
+        }
+        tf = new DaemonThreadFactory("PipeGroupThread");
+        return new PipeGroup(Executors.newCachedThreadPool(tf), true);
+    }
+
+    /**
+     * Runs <code>task</code> on one of the threads in this group.
+     *
+     * @param task the task to run.
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Returns the executor to run helper tasks on, which must never wait for
+     * a thread held by a pipe in this group.
+     */
+    Executor helpers() {
+        return helpers;
+    }
+
+    /**
+     * Shuts down this group if its executor is an {@link ExecutorService}.
+     * Pipes already running will continue to run, but pipes which are started
+     * or restarted afterwards will be rejected.
+     */
+    public void shutdown() {
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        }
+        catch (Exception e) {
+            // No virtual threads on this JVM.
+            return null;
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter;
+
+        public DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+            this.counter = new AtomicInteger();
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r);
+            t.setName(String.format("%s %d", prefix, counter.getAndIncrement()));
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    private static class ThreadPerTaskExecutor implements Executor {
+        private final ThreadFactory tf;
+
+        public ThreadPerTaskExecutor(ThreadFactory tf) {
+            this.tf = tf;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            tf.newThread(task).start();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+/**
+ * A PipeListener is notified when a {@link Pipe} has finished piping, which
+ * makes it possible to react to a finished pipe without waiting for it in
+ * {@link Pipe#join()}.
+ *
+ * @author Jean Niklas L'orange
+ * @see Pipe#addListener(PipeListener)
+ * @since <code>com.hypirion.io 0.4.0</code>
+ */
+public interface PipeListener {
+
+    /**
+     * Called once <code>pipe</code> has finished piping. If the pipe failed,
+     * <code>failure</code> is the exception which made it fail, otherwise it is
+     * <code>null</code>.
+     *
+     * @param pipe the pipe which has finished.
+     * @param failure the exception which made the pipe fail, or
+     * <code>null</code>.
+     */
+    void pipeFinished(Pipe pipe, Throwable failure);
+}
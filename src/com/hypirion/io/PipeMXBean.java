@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+/**
+ * The management interface of a {@link Pipe}, which exposes the same
+ * statistics as {@link PipeStats}.
+ *
+ * @author Jean Niklas L'orange
+ * @see Pipe#asMXBean()
+ * @since <code>com.hypirion.io 0.4.0</code>
+ */
+public interface PipeMXBean {
+
+    /**
+     * Returns the state of the pipe.
+     *
+     * @return the state of the pipe.
+     */
+    Pipe.State getState();
+
+    /**
+     * Returns the amount of data the pipe has transferred.
+     *
+     * @return the amount of data transferred.
+     */
+    long getTransferred();
+
+    /**
+     * Returns the number of reads the pipe has done on its input source.
+     *
+     * @return the number of reads.
+     */
+    long getReads();
+
+    /**
+     * Returns the total time the pipe has spent reading, in nanoseconds.
+     *
+     * @return the time spent reading, in nanoseconds.
+     */
+    long getReadNanos();
+
+    /**
+     * Returns the total time the pipe has spent writing, in nanoseconds.
+     *
+     * @return the time spent writing, in nanoseconds.
+     */
+    long getWriteNanos();
+
+    /**
+     * Returns the time of the pipe's last activity, in milliseconds since the
+     * epoch.
+     *
+     * @return the time of the last activity of the pipe.
+     */
+    long getLastActivity();
+
+    /**
+     * Returns the buffer size of the pipe, or <code>-1</code> if the pipe
+     * doesn't have a single buffer.
+     *
+     * @return the buffer size of the pipe.
+     */
+    int getBufferSize();
+}
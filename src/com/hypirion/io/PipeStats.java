@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+/**
+ * A PipeStats is a snapshot of the statistics of a {@link Pipe}. Amounts are
+ * measured in bytes for byte pipes and in chars for character pipes.
+ * <p>
+ * The time spent reading and writing makes it possible to see whether a slow
+ * pipe waits for its input source or its output source: A pipe with a silent
+ * input source will spend most of its time reading, whereas a pipe with a
+ * blocking output source will spend most of its time writing.
+ *
+ * @author Jean Niklas L'orange
+ * @see Pipe#getStats()
+ * @since <code>com.hypirion.io 0.4.0</code>
+ */
+public final class PipeStats {
+    private final Pipe.State state;
+    private final long transferred, reads, readNanos, writeNanos, lastActivity;
+    private final int bufferSize;
+
+    PipeStats(Pipe.State state, long transferred, long reads, long readNanos,
+              long writeNanos, long lastActivity, int bufferSize) {
+        this.state = state;
+        this.transferred = transferred;
+        this.reads = reads;
+        this.readNanos = readNanos;
+        this.writeNanos = writeNanos;
+        this.lastActivity = lastActivity;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Returns the state of the pipe.
+     *
+     * @return the state of the pipe.
+     */
+    public Pipe.State getState() {
+        return state;
+    }
+
+    /**
+     * Returns the amount of data the pipe has transferred.
+     *
+     * @return the amount of data transferred.
+     */
+    public long getTransferred() {
+        return transferred;
+    }
+
+    /**
+     * Returns the number of reads the pipe has done on its input source.
+     *
+     * @return the number of reads.
+     */
+    public long getReads() {
+        return reads;
+    }
+
+    /**
+     * Returns the total time the pipe has spent reading from its input source,
+     * in nanoseconds.
+     *
+     * @return the time spent reading, in nanoseconds.
+     */
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    /**
+     * Returns the total time the pipe has spent writing to and flushing its
+     * output source, in nanoseconds.
+     *
+     * @return the time spent writing, in nanoseconds.
+     */
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    /**
+     * Returns the time of the pipe's last completed read or write, in
+     * milliseconds since the epoch, or 0 if the pipe has not done any reads.
+     *
+     * @return the time of the last activity of the pipe.
+     */
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Returns the buffer size of the pipe, or <code>-1</code> if the pipe
+     * doesn't have a single buffer.
+     *
+     * @return the buffer size of the pipe.
+     * @see Pipe#setAdaptiveBufferSize(int, int)
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PipeStats[state=%s, transferred=%d, reads=%d, "
+                             + "readNanos=%d, writeNanos=%d, lastActivity=%d, "
+                             + "bufferSize=%d]",
+                             state, transferred, reads, readNanos, writeNanos,
+                             lastActivity, bufferSize);
+    }
+}
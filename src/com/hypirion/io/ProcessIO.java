@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
+
+/**
+ * A ProcessIO attaches the standard input, output and error of a process to
+ * input and output sources, using as few threads as possible: Ends which are
+ * redirected to files or inherited from this JVM are handled by the operating
+ * system and need no thread at all, and output and error sent to the same
+ * output stream share a single pipe. The remaining ends are served by pipes
+ * running on a {@link PipeGroup}, so processes may share their threads with
+ * other pipes.
+ * <p>
+ * By default, a process gets an empty standard input, and its output and error
+ * are discarded. The standard input of the process is closed once its input
+ * source is empty. Output sources are never closed.
+ * <p>
+ * Input streams are piped to the process as they are. If the input stream is
+ * a {@link RevivableInputStream}, it is killed once the process has exited
+ * and resurrected afterwards, so the input pipe does not stay blocked on it
+ * and does not take data meant for later readers. The caller owns the stream,
+ * and may share it between processes and other readers: To share
+ * <code>System.in</code>, wrap it in a single RevivableInputStream and read
+ * from that everywhere. Other input streams can't be woken up, so the input
+ * pipe may stay blocked on them after the process has exited, and the next
+ * chunk it reads from them is lost.
+ *
+ * @author Jean Niklas L'orange
+ * @see Pipe
+ * @since <code>com.hypirion.io 0.4.0</code>
+ */
+public class ProcessIO {
+
+    private static final File NULL_FILE =
+        new File(System.getProperty("os.name").startsWith("Windows")
+                 ? "NUL" : "/dev/null");
+
+    private final ProcessBuilder pb;
+    private final PipeGroup group;
+    private InputStream in;
+    private OutputStream out, err;
+    private Redirect inRedirect, outRedirect, errRedirect;
+    private Process process;
+    private RevivableInputStream revivable;
+    private Pipe inPipe, outPipe, errPipe;
+
+    /**
+     * Creates a new ProcessIO which starts processes through
+     * <code>pb</code>.
+     *
+     * @param pb the process builder to start the process with.
+     */
+    public ProcessIO(ProcessBuilder pb) {
+        this(pb, PipeGroup.DEDICATED);
+    }
+
+    /**
+     * Creates a new ProcessIO which starts processes through
+     * <code>pb</code>, and runs its pipes on threads from <code>group</code>.
+     *
+     * @param pb the process builder to start the process with.
+     * @param group the pipe group to run pipes in.
+     */
+    public ProcessIO(ProcessBuilder pb, PipeGroup group) {
+        if (pb == null) {
+            throw new NullPointerException("pb");
+        }
+        if (group == null) {
+            throw new NullPointerException("group");
+        }
+        this.pb = pb;
+        this.group = group;
+        inRedirect = Redirect.PIPE;
+        outRedirect = Redirect.to(NULL_FILE);
+        errRedirect = Redirect.to(NULL_FILE);
+    }
+
+    /**
+     * Pipes data from <code>in</code> to the standard input of the process.
+     * If <code>in</code> is a {@link RevivableInputStream}, it is killed when
+     * the process exits and resurrected afterwards, so that it can be read
+     * from by others. Other input streams should not be read from by others
+     * after the process has exited, as the input pipe may still be blocked
+     * on them.
+     *
+     * @param in the input stream to read from.
+     */
+    public synchronized void setInput(InputStream in) {
+        if (in == null) {
+            throw new NullPointerException("in");
+        }
+        this.in = in;
+        inRedirect = Redirect.PIPE;
+    }
+
+    /**
+     * Lets the process read its standard input from the file
+     * <code>file</code>.
+     *
+     * @param file the file to read from.
+     */
+    public void setInput(File file) {
+        setInput(Redirect.from(file));
+    }
+
+    /**
+     * Redirects the standard input of the process through
+     * <code>redirect</code>, e.g. {@link Redirect#INHERIT}. Using
+     * {@link Redirect#PIPE} gives the process an empty input.
+     *
+     * @param redirect how to redirect the standard input.
+     */
+    public synchronized void setInput(Redirect redirect) {
+        if (redirect == null) {
+            throw new NullPointerException("redirect");
+        }
+        in = null;
+        inRedirect = redirect;
+    }
+
+    /**
+     * Pipes the standard output of the process to <code>out</code>.
+     *
+     * @param out the output stream to write out to.
+     */
+    public synchronized void setOutput(OutputStream out) {
+        if (out == null) {
+            throw new NullPointerException("out");
+        }
+        this.out = out;
+        outRedirect = Redirect.PIPE;
+    }
+
+    /**
+     * Lets the process write its standard output to the file
+     * <code>file</code>, which is truncated first.
+     *
+     * @param file the file to write to.
+     */
+    public void setOutput(File file) {
+        setOutput(Redirect.to(file));
+    }
+
+    /**
+     * Redirects the standard output of the process through
+     * <code>redirect</code>, e.g. {@link Redirect#INHERIT}.
+     *
+     * @param redirect how to redirect the standard output.
+     */
+    public synchronized void setOutput(Redirect redirect) {
+        if (redirect == null) {
+            throw new NullPointerException("redirect");
+        }
+        out = null;
+        outRedirect = redirect;
+    }
+
+    /**
+     * Pipes the standard error of the process to <code>err</code>. If
+     * <code>err</code> is also the output stream of the standard output, both
+     * are piped through a single pipe.
+     *
+     * @param err the output stream to write out to.
+     */
+    public synchronized void setError(OutputStream err) {
+        if (err == null) {
+            throw new NullPointerException("err");
+        }
+        this.err = err;
+        errRedirect = Redirect.PIPE;
+    }
+
+    /**
+     * Lets the process write its standard error to the file
+     * <code>file</code>, which is truncated first.
+     *
+     * @param file the file to write to.
+     */
+    public void setError(File file) {
+        setError(Redirect.to(file));
+    }
+
+    /**
+     * Redirects the standard error of the process through
+     * <code>redirect</code>, e.g. {@link Redirect#INHERIT}.
+     *
+     * @param redirect how to redirect the standard error.
+     */
+    public synchronized void setError(Redirect redirect) {
+        if (redirect == null) {
+            throw new NullPointerException("redirect");
+        }
+        err = null;
+        errRedirect = redirect;
+    }
+
+    /**
+     * Starts the process and the pipes attached to it. The redirects of the
+     * process builder are overwritten.
+     *
+     * @return the started process.
+     * @exception IOException if the process could not be started.
+     * @exception IllegalStateException if the process has already been
+     * started.
+     */
+    public synchronized Process start() throws IOException {
+        if (process != null) {
+            throw new IllegalStateException("Process already started");
+        }
+        boolean mergeErr = err != null && err == out;
+        pb.redirectInput(inRedirect);
+        pb.redirectOutput(outRedirect);
+        pb.redirectError(mergeErr ? Redirect.PIPE : errRedirect);
+        pb.redirectErrorStream(mergeErr);
+        process = pb.start();
+        if (out != null) {
+            outPipe = new Pipe(process.getInputStream(), out,
+                               Pipe.DEFAULT_BUFFER_SIZE, group);
+            outPipe.start();
+        }
+        if (err != null && !mergeErr) {
+            errPipe = new Pipe(process.getErrorStream(), err,
+                               Pipe.DEFAULT_BUFFER_SIZE, group);
+            errPipe.start();
+        }
+        if (in != null) {
+            if (in instanceof RevivableInputStream) {
+                revivable = (RevivableInputStream) in;
+            }
+            inPipe = new ClosingPipe(in, process.getOutputStream(),
+                                     Pipe.DEFAULT_BUFFER_SIZE, group);
+            inPipe.start();
+        }
+        else if (inRedirect == Redirect.PIPE) {
+            process.getOutputStream().close();
+        }
+        return process;
+    }
+
+    /**
+     * Returns the process, or <code>null</code> if it has not been started.
+     *
+     * @return the process, or <code>null</code>.
+     */
+    public synchronized Process getProcess() {
+        return process;
+    }
+
+    /**
+     * Waits for the process to exit and for its output and error to be piped
+     * to their output sources. Once the process has exited, the input pipe
+     * is stopped. If its input stream is a {@link RevivableInputStream}, the
+     * stream is killed, the input pipe is waited for, and the stream is
+     * resurrected again, so that it can be read from by others. The input
+     * pipe is not waited for otherwise, as it may be blocked on its input
+     * stream. Failures of the input pipe are ignored, as writing to an exited
+     * process will fail.
+     *
+     * @return the exit value of the process.
+     * @exception InterruptedException if this thread is interrupted while
+     * waiting.
+     * @exception IOException if the output or error pipe failed.
+     * @exception IllegalStateException if the process has not been started.
+     */
+    public int awaitCompletion() throws InterruptedException, IOException {
+        Process p;
+        Pipe ip, op, ep;
+        RevivableInputStream rin;
+        synchronized (this) {
+            if (process == null) {
+                throw new IllegalStateException("Process not started");
+            }
+            p = process;
+            ip = inPipe;
+            rin = revivable;
+            op = outPipe;
+            ep = errPipe;
+        }
+        int exitValue = p.waitFor();
+        if (rin != null) {
+            rin.kill();
+            try {
+                ip.stop();
+            }
+            finally {
+                rin.resurrect();
+            }
+        }
+        else if (ip != null) {
+            ip.stop(false);
+        }
+        if (op != null) {
+            op.joinOrThrow();
+        }
+        if (ep != null) {
+            ep.joinOrThrow();
+        }
+        return exitValue;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.IOException;
+
+/**
+ * A RecordHandler receives the records split out by a {@link
+ * FramingOutputStream}.
+ *
+ * @author Jean Niklas L'orange
+ * @see FramingOutputStream
+ * @since <code>com.hypirion.io 0.4.0</code>
+ */
+public interface RecordHandler {
+
+    /**
+     * Called with a record, which is the <code>len</code> bytes starting at
+     * <code>off</code> in <code>buf</code>, without its delimiter. The array
+     * is only valid during the call, and must not be modified or kept
+     * afterwards.
+     *
+     * @param buf the array containing the record.
+     * @param off the start offset of the record.
+     * @param len the length of the record.
+     * @exception IOException if the record could not be handled.
+     */
+    void record(byte[] buf, int off, int len) throws IOException;
+}
@@ -16,6 +16,8 @@ package com.hypirion.io;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A revivable input stream is an unbuffered input stream wrapping another input
@@ -27,22 +29,52 @@ import java.io.InterruptedIOException;
  * able to cancel a blocking <code>.read</code> where you must use an input
  * stream. This is useful if you need to send a message to the thread which
  * attempts to read from the input stream.
+ * <p>
+ * By default, a revivable input stream only reads from the underlying stream
+ * when asked to. A revivable input stream in read-ahead mode will instead keep
+ * reading from the underlying stream until its buffer is full, which makes
+ * reads return immediately if enough data has arrived.
+ * <p>
+ * Reads may be given a timeout, either per call through {@link #read(byte[],
+ * int, int, long, TimeUnit)} or for all reads through {@link
+ * #setDefaultTimeout(long, TimeUnit)}. A read which times out leaves the
+ * stream usable, and data arriving afterwards is kept for the next read.
  *
  * @author Jean Niklas L'orange
  * @since <code>com.hypirion.io 0.1.0</code>
  */
 
 public class RevivableInputStream extends InputStream {
-    private InputStream in;
+
+    /**
+     * The default size of a revivable input stream's buffer.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    // Returned by readUnlessKilled if the stream is killed.
+    static final int KILLED = -2;
+
+    // Returned by awaitData if the read timed out.
+    private static final int TIMED_OUT = -3;
+
+    private final InputStream in;
 
     private volatile boolean killed;
     private volatile boolean streamClosed;
-    private volatile int requestedBytes;
-    private volatile byte[] data;
-    private volatile boolean requestData;
     private final Object dataLock;
     private volatile boolean threadCrashed;
     private volatile IOException threadException;
+    private volatile long defaultTimeoutNanos;
+
+    // Ring buffer shared between the reader thread and the consumer, guarded
+    // by dataLock. The reader thread fills it, the consumer drains it.
+    private final BufferPool pool;
+    private final byte[] buffer;
+    private final int capacity;
+    private int head, count, requestedBytes;
+    private boolean readerBusy, closed, readerDone, released;
+    private final boolean readAhead;
 
     private final ThreadReader reader;
     private final Thread readerThread;
@@ -52,37 +84,137 @@ public class RevivableInputStream extends InputStream {
      * <code>in</code>, giving it power to be killed and resurrected.
      */
     public RevivableInputStream(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new <code>RevivableInputStream</code> with buffer size
+     * <code>bufsize</code> which wraps <code>in</code>, giving it power to be
+     * killed and resurrected. A single read will never return more than
+     * <code>bufsize</code> bytes.
+     *
+     * @param in the input stream to wrap.
+     * @param bufsize the buffer size of this stream.
+     * @exception IllegalArgumentException if <code>bufsize &lt;= 0</code>.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public RevivableInputStream(InputStream in, int bufsize) {
+        this(in, bufsize, false);
+    }
+
+    /**
+     * Creates a new <code>RevivableInputStream</code> with buffer size
+     * <code>bufsize</code> which wraps <code>in</code>, giving it power to be
+     * killed and resurrected. If <code>readAhead</code> is true, this stream
+     * will read from <code>in</code> until it has buffered <code>bufsize</code>
+     * bytes, regardless of whether someone is reading from this stream or not.
+     *
+     * @param in the input stream to wrap.
+     * @param bufsize the buffer size of this stream.
+     * @param readAhead whether to read ahead or not.
+     * @exception IllegalArgumentException if <code>bufsize &lt;= 0</code>.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public RevivableInputStream(InputStream in, int bufsize,
+                                boolean readAhead) {
+        this(in, bufsize, readAhead, BufferPool.shared());
+    }
+
+    /**
+     * Creates a new <code>RevivableInputStream</code> with buffer size
+     * <code>bufsize</code> which wraps <code>in</code>, giving it power to be
+     * killed and resurrected. The buffer is taken from <code>pool</code>, and
+     * released to it once this stream is closed and its reader thread has
+     * stopped reading.
+     *
+     * @param in the input stream to wrap.
+     * @param bufsize the buffer size of this stream.
+     * @param readAhead whether to read ahead or not.
+     * @param pool the buffer pool to take the buffer from.
+     * @exception IllegalArgumentException if <code>bufsize &lt;= 0</code>.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public RevivableInputStream(InputStream in, int bufsize,
+                                boolean readAhead, BufferPool pool) {
+        if (bufsize <= 0) {
+            throw new IllegalArgumentException("bufsize must be positive");
+        }
         this.in = in;
         killed = false;
         streamClosed = false;
-        requestData = true;
         dataLock = new Object();
         threadCrashed = false;
         threadException = null;
-        requestedBytes = -1;
-        data = null;
+        defaultTimeoutNanos = 0;
+        this.pool = pool;
+        buffer = pool.acquireBytes(bufsize);
+        capacity = bufsize;
+        closed = false;
+        readerDone = false;
+        released = false;
+        head = 0;
+        count = 0;
+        requestedBytes = 0;
+        readerBusy = false;
+        this.readAhead = readAhead;
         reader = new ThreadReader();
         readerThread = new Thread(reader);
         readerThread.setDaemon(true);
         readerThread.setName("RevivableReader " + in.hashCode());
         readerThread.start();
-        while (requestData) {
-            Thread.yield();
-            // ensure no deadlock by waiting for the reader to get into its
-            // correct state
-        }
     }
 
     /**
      * Returns the number of bytes than can be read from this input stream
-     * without blocking.
+     * without blocking. This is the number of bytes buffered by this stream,
+     * or 0 if this stream is killed.
+     *
+     * @return the number of bytes buffered by this stream.
+     */
+    public int available() {
+        synchronized (dataLock) {
+            return killed ? 0 : count;
+        }
+    }
+
+    /**
+     * Sets the default timeout of reads from this stream. Reads without an
+     * explicit timeout which wait longer than <code>timeout</code> for data
+     * will throw a {@link SocketTimeoutException}. A timeout of zero disables
+     * the default timeout, which is the default.
+     *
+     * @param timeout the default timeout, or zero for none.
+     * @param unit the unit of <code>timeout</code>.
+     * @exception IllegalArgumentException if <code>timeout &lt; 0</code>.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public void setDefaultTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout must be >= 0");
+        }
+        defaultTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Returns the default timeout of reads from this stream, or zero if there
+     * is none.
      *
-     * Will as of now return 0.
+     * @param unit the unit to return the timeout in.
+     * @return the default timeout in <code>unit</code>s.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public long getDefaultTimeout(TimeUnit unit) {
+        return unit.convert(defaultTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns true if this stream is in read-ahead mode.
      *
-     * @return 0
+     * @return true if this stream is in read-ahead mode, false otherwise.
+     * @since <code>com.hypirion.io 0.4.0</code>
      */
-    public synchronized int available() {
-        return 0;
+    public boolean isReadAhead() {
+        return readAhead;
     }
 
     /**
@@ -95,6 +227,9 @@ public class RevivableInputStream extends InputStream {
      */
     public synchronized void close() throws IOException {
         synchronized (dataLock) {
+            streamClosed = true;
+            closed = true;
+            releaseBuffer();
             in.close();
             dataLock.notifyAll();
         }
@@ -109,75 +244,93 @@ public class RevivableInputStream extends InputStream {
      *
      * @return the next byte of data, or <code>-1</code> if the end of the
      * stream is reached or the stream is killed.
+     * @exception SocketTimeoutException if the default timeout expired before
+     * any data was available.
      * @exception IOException if the underlying <code>InputStream</code> throws
      * an <code>IOException</code> when attempted to read. This exception will
      * be thrown every time read is called until the stream is closed.
      */
     public synchronized int read() throws IOException {
-        byte[] b = new byte[1];
-        int count = 0;
-        do {
-            count = read(b);
-        } while (count == 0);
-        if (count == -1){
-            return -1;
-        }
-        else {
-            return b[0];
+        synchronized (dataLock) {
+            int status = awaitData(1, defaultTimeoutNanos);
+            if (status == TIMED_OUT) {
+                throw new SocketTimeoutException("Read timed out");
+            }
+            if (status < 0) {
+                return -1;
+            }
+            int b = buffer[head] & 0xff;
+            consumed(1);
+            return b;
         }
     }
 
     public synchronized int read(byte[] b, int off, int len)
         throws IOException {
+        int n = readUnlessKilled(b, off, len);
+        return n == KILLED ? -1 : n;
+    }
+
+    /**
+     * Reads up to <code>len</code> bytes of data from this revivable input
+     * stream into an array, waiting at most <code>timeout</code> for data to
+     * arrive. A non-positive timeout makes this method return immediately if
+     * no data is buffered. The default timeout of this stream is ignored.
+     *
+     * @param b the buffer into which the data is read.
+     * @param off the start offset in <code>b</code>.
+     * @param len the maximal number of bytes to read.
+     * @param timeout the maximal time to wait for data.
+     * @param unit the unit of <code>timeout</code>.
+     * @return the number of bytes read, <code>0</code> if the read timed out,
+     * or <code>-1</code> if the end of the stream is reached or the stream is
+     * killed.
+     * @exception IOException if the underlying <code>InputStream</code> throws
+     * an <code>IOException</code> when attempted to read.
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public synchronized int read(byte[] b, int off, int len, long timeout,
+                                 TimeUnit unit) throws IOException {
+        long nanos = timeout > 0 ? unit.toNanos(timeout) : -1;
+        int n = read0(b, off, len, nanos);
+        if (n == TIMED_OUT) {
+            return 0;
+        }
+        return n == KILLED ? -1 : n;
+    }
+
+    // Like read, but returns KILLED instead of -1 if this stream is killed.
+    synchronized int readUnlessKilled(byte[] b, int off, int len)
+        throws IOException {
+        int n = read0(b, off, len, defaultTimeoutNanos);
+        if (n == TIMED_OUT) {
+            throw new SocketTimeoutException("Read timed out");
+        }
+        return n;
+    }
+
+    // Waits at most nanos for data if positive, forever if zero and not at
+    // all if negative. Returns the number of bytes read, -1 on EOF, KILLED or
+    // TIMED_OUT.
+    private int read0(byte[] b, int off, int len, long nanos)
+        throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
         synchronized (dataLock) {
-            if (data == null) {
-                requestedBytes = len;
-                requestData = true;
-                dataLock.notifyAll();
-            }
-            try {
-                while (data == null && !killed && !streamClosed && !threadCrashed) {
-                    dataLock.wait();
-                }
-            }
-            catch (InterruptedException ie) {
-                throw new InterruptedIOException();
-            }
-            if (streamClosed)
-                return -1;
-            if (threadCrashed)
-                throw threadException;
-            if (killed)
-                return -1;
-            // data must be non-null here due to dataLock's critical section.
-            int n = data.length;
-            if (n < len) {
-                int totRead = n;
-                System.arraycopy(data, 0, b, off, n);
-                data = null;
-
-                // In case we can read additional data without blocking
-                int additional = Math.min(in.available(), len - n);
-                if (additional > 0) {
-                    additional = in.read(b, off + n, additional);
-                    // ^ sanity check
-                }
-                totRead += additional;
-                return totRead;
-            }
-            else if (n > len) {
-                System.arraycopy(data, 0, b, off, len);
-                int diff = n - len;
-                byte[] newData = new byte[diff];
-                System.arraycopy(data, len, newData, 0, diff);
-                data = newData;
-                return len;
-            }
-            else { // here n == len
-                System.arraycopy(data, 0, b, off, len);
-                data = null;
-                return len;
+            int status = awaitData(len, nanos);
+            if (status < 0) {
+                return status;
             }
+            int n = Math.min(len, count);
+            int first = Math.min(n, capacity - head);
+            System.arraycopy(buffer, head, b, off, first);
+            System.arraycopy(buffer, 0, b, off + first, n - first);
+            consumed(n);
+            return n;
         }
     }
 
@@ -207,15 +360,95 @@ public class RevivableInputStream extends InputStream {
         killed = false;
     }
 
+    // Must be called while holding dataLock. Requests up to len bytes from the
+    // reader thread if the buffer is empty, then waits until there is data to
+    // consume. Waits at most nanos if positive, forever if zero and not at all
+    // if negative. Returns 0 if there is data, KILLED if this stream is
+    // killed, TIMED_OUT if the wait timed out and -1 if the stream is closed.
+    private int awaitData(int len, long nanos) throws IOException {
+        if (count == 0 && !killed) {
+            requestedBytes = len;
+            dataLock.notifyAll();
+        }
+        long deadline = System.nanoTime() + nanos;
+        try {
+            while (count == 0 && !killed && !streamClosed && !threadCrashed) {
+                if (nanos == 0) {
+                    dataLock.wait();
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (nanos < 0 || remaining <= 0) {
+                    return TIMED_OUT;
+                }
+                TimeUnit.NANOSECONDS.timedWait(dataLock, remaining);
+            }
+        }
+        catch (InterruptedException ie) {
+            throw new InterruptedIOException();
+        }
+        if (killed)
+            return KILLED;
+        if (count > 0)
+            return 0;
+        if (threadCrashed)
+            throw threadException;
+        return -1; // stream closed
+    }
+
+    // Must be called while holding dataLock.
+    private void consumed(int n) {
+        head += n;
+        if (head >= capacity) {
+            head -= capacity;
+        }
+        count -= n;
+        if (count == 0 && !readerBusy) {
+            head = 0; // Gives the reader thread as much space as possible
+        }
+        if (readAhead) {
+            dataLock.notifyAll(); // The reader may wait for free space
+        }
+    }
+
+    // Must be called while holding dataLock. Releases the buffer once no one
+    // will touch it anymore.
+    private void releaseBuffer() {
+        if (closed && readerDone && !released) {
+            released = true;
+            count = 0;
+            pool.release(buffer);
+        }
+    }
+
+    // Must be called while holding dataLock.
+    private boolean readerShouldWait() {
+        if (readAhead) {
+            return count == capacity;
+        }
+        return requestedBytes == 0;
+    }
+
     private class ThreadReader implements Runnable {
         @Override
         public void run() {
+            try {
+                readLoop();
+            }
+            finally {
+                synchronized (dataLock) {
+                    readerDone = true;
+                    releaseBuffer();
+                }
+            }
+        }
+
+        private void readLoop() {
             while (true) {
+                int pos, len;
                 synchronized (dataLock) {
-                    requestData = false;
-                    dataLock.notifyAll();
                     try {
-                        while (!requestData) {
+                        while (!streamClosed && readerShouldWait()) {
                             dataLock.wait();
                         }
                     }
@@ -223,28 +456,41 @@ public class RevivableInputStream extends InputStream {
                         threadCrashed = true;
                         threadException = new InterruptedIOException();
                         // TODO: Use "real"  exception
+                        dataLock.notifyAll();
                         return;
                     }
+                    if (streamClosed) {
+                        return;
+                    }
+                    pos = (head + count) % capacity;
+                    len = Math.min(capacity - count,
+                                   capacity - pos);
+                    if (!readAhead) {
+                        len = Math.min(len, requestedBytes);
+                    }
+                    readerBusy = true;
                 }
-                // Data has been requested, create new array with data.
+                // Data has been requested, read it straight into the buffer.
                 try {
-                    byte[] buffer = new byte[requestedBytes];
-                    int actualBytes = in.read(buffer); // <-- actual reading
+                    int actualBytes = in.read(buffer, pos, len);
 
-                    if (actualBytes == -1){
-                        synchronized (dataLock){
+                    synchronized (dataLock) {
+                        readerBusy = false;
+                        if (actualBytes == -1) {
                             streamClosed = true;
                             dataLock.notifyAll();
                             return;
                         }
+                        if (actualBytes > 0) {
+                            count += actualBytes;
+                            requestedBytes = 0;
+                        }
+                        dataLock.notifyAll();
                     }
-
-                    byte[] actual = new byte[actualBytes];
-                    System.arraycopy(buffer, 0, actual, 0, actualBytes);
-                    data = actual;
                 }
                 catch (IOException ioe) {
                     synchronized (dataLock) {
+                        readerBusy = false;
                         threadCrashed = true;
                         threadException = ioe; // TODO: Proper wrapping here.
                         dataLock.notifyAll();
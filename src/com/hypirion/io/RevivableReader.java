@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A revivable reader is the character counterpart of a {@link
+ * RevivableInputStream}: It decodes an input stream into characters, and allows
+ * to "kill" blocking <code>.read</code> calls by calling <code>.kill</code>.
+ * Reading from the reader can be resumed by calling <code>.resurrect</code>.
+ * <p>
+ * Bytes are decoded directly into the buffer given to <code>.read</code>. Bytes
+ * which do not yet make up a whole character are kept until the rest of the
+ * character arrives, so killing the reader in the middle of a multibyte
+ * character will not lose or corrupt it. Malformed input and unmappable
+ * characters are replaced, just as in {@link java.io.InputStreamReader}.
+ * <p>
+ * Unless the input stream already is a {@link RevivableInputStream}, the
+ * reader wraps it in one, which owns a daemon thread reading from the input
+ * stream until the reader is closed. A RevivableInputStream is used as is, so
+ * killing or resurrecting either the stream or the reader affects both.
+ *
+ * @author Jean Niklas L'orange
+ * @see RevivableInputStream
+ * @since <code>com.hypirion.io 0.4.0</code>
+ */
+public class RevivableReader extends Reader {
+
+    // Enough bytes to decode a character in any of the standard charsets.
+    private static final int MAX_BYTES_PER_CHAR = 4;
+
+    private final RevivableInputStream in;
+    private final CharsetDecoder decoder;
+    private final ByteBuffer bytes;
+    private final CharBuffer single;
+    private boolean eof, flushed;
+
+    /**
+     * Creates a new <code>RevivableReader</code> which decodes
+     * <code>in</code> with the default charset.
+     *
+     * @param in the input stream to read from.
+     */
+    public RevivableReader(InputStream in) {
+        this(in, Charset.defaultCharset());
+    }
+
+    /**
+     * Creates a new <code>RevivableReader</code> which decodes
+     * <code>in</code> with the charset <code>cs</code>.
+     *
+     * @param in the input stream to read from.
+     * @param cs the charset to decode with.
+     */
+    public RevivableReader(InputStream in, Charset cs) {
+        this(in, cs, RevivableInputStream.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new <code>RevivableReader</code> with buffer size
+     * <code>bufsize</code> which decodes <code>in</code> with the charset
+     * <code>cs</code>. If <code>in</code> is a {@link RevivableInputStream},
+     * it is read from directly, and <code>bufsize</code> is only used for the
+     * bytes waiting to be decoded.
+     *
+     * @param in the input stream to read from.
+     * @param cs the charset to decode with.
+     * @param bufsize the buffer size of this reader.
+     * @exception IllegalArgumentException if <code>bufsize &lt; 4</code>.
+     */
+    public RevivableReader(InputStream in, Charset cs, int bufsize) {
+        if (bufsize < MAX_BYTES_PER_CHAR) {
+            throw new IllegalArgumentException("bufsize must be at least 4");
+        }
+        if (in instanceof RevivableInputStream) {
+            this.in = (RevivableInputStream) in;
+        }
+        else {
+            this.in = new RevivableInputStream(in, bufsize);
+        }
+        decoder = cs.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        bytes = ByteBuffer.allocate(bufsize);
+        bytes.flip(); // Always kept ready for decoding
+        single = CharBuffer.allocate(2);
+        single.flip();
+        eof = false;
+        flushed = false;
+    }
+
+    /**
+     * Reads characters into a portion of an array. This method blocks until a
+     * character is available, the end of the stream is reached, an exception is
+     * thrown or this reader is (potentially temporarily) killed.
+     *
+     * @param cbuf the destination buffer.
+     * @param off the offset at which to start storing characters.
+     * @param len the maximal number of characters to read.
+     * @return the number of characters read, or <code>-1</code> if the end of
+     * the stream is reached or the reader is killed.
+     * @exception IOException if the underlying <code>InputStream</code> throws
+     * an <code>IOException</code> when attempted to read.
+     */
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > cbuf.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        synchronized (lock) {
+            if (single.hasRemaining()) {
+                cbuf[off] = single.get();
+                return 1;
+            }
+            if (len == 1) {
+                // A surrogate pair doesn't fit in cbuf, so decode into single
+                // and keep the second char for later.
+                single.clear();
+                int n = decode(single);
+                single.flip();
+                if (n < 0) {
+                    return n;
+                }
+                cbuf[off] = single.get();
+                return 1;
+            }
+            return decode(CharBuffer.wrap(cbuf, off, len));
+        }
+    }
+
+    /**
+     * Tells whether this reader is ready to be read without blocking.
+     *
+     * @return true if the next read is guaranteed not to block.
+     * @exception IOException if the underlying <code>InputStream</code> throws
+     * an <code>IOException</code>.
+     */
+    @Override
+    public boolean ready() throws IOException {
+        synchronized (lock) {
+            return single.hasRemaining() ||
+                bytes.remaining() + in.available() >= MAX_BYTES_PER_CHAR;
+        }
+    }
+
+    /**
+     * Kills this revivable reader. Makes current and future read calls
+     * immediately return -1. The reader may be revived through {@link
+     * #resurrect()}. If this revivable reader is already killed, this method
+     * does nothing.
+     *
+     * @see #resurrect()
+     */
+    public void kill() {
+        in.kill();
+    }
+
+    /**
+     * Resurrects a killed revivable reader. This makes it possible to read
+     * from this reader once again. If this revivable reader is not killed, this
+     * method does nothing.
+     *
+     * @see #kill()
+     */
+    public void resurrect() {
+        in.resurrect();
+    }
+
+    /**
+     * Closes this revivable reader and the underlying input stream, and
+     * releases any with system resources (threads, memory) associated with this
+     * reader.
+     *
+     * @exception IOException if the underlying <code>InputStream</code> throws
+     * an <code>IOException</code>.
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    // Must be called while holding lock. Decodes at least one char into out,
+    // blocking if necessary. Returns the number of chars decoded, or -1 if the
+    // stream is empty or killed.
+    private int decode(CharBuffer out) throws IOException {
+        int start = out.position();
+        while (true) {
+            if (!flushed) {
+                CoderResult cr = decoder.decode(bytes, out, eof);
+                if (cr.isError()) {
+                    cr.throwException();
+                }
+                if (eof && cr.isUnderflow()) {
+                    flushed = decoder.flush(out).isUnderflow();
+                }
+            }
+            int n = out.position() - start;
+            if (n > 0) {
+                return n;
+            }
+            if (eof || !fill()) {
+                return -1;
+            }
+        }
+    }
+
+    // Must be called while holding lock. Reads more bytes from the input
+    // stream. Returns false if the stream is killed.
+    private boolean fill() throws IOException {
+        bytes.compact();
+        try {
+            int pos = bytes.position();
+            int n = in.readUnlessKilled(bytes.array(),
+                                        bytes.arrayOffset() + pos,
+                                        bytes.remaining());
+            if (n == RevivableInputStream.KILLED) {
+                return false;
+            }
+            if (n < 0) {
+                eof = true;
+            }
+            else {
+                bytes.position(pos + n);
+            }
+            return true;
+        }
+        finally {
+            bytes.flip();
+        }
+    }
+}
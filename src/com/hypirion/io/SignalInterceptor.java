@@ -22,13 +22,23 @@ import java.util.concurrent.Callable;
  * <code>A</code> to signal <code>X</code>, then attach the handler
  * <code>B</code> to <code>X</code> as well, then all raised signals of type
  * <code>X</code> will first call <code>B</code>, then <code>A</code>, then the
- * original handler.
+ * original handler. Native original handlers, such as the default handler of
+ * a signal, cannot be called from Java and are skipped. Handlers may be
+ * removed from the chain again through the {@link SignalRegistration} returned
+ * when registering them.
  * <p>
  * Signal handlers are {@link java.util.concurrent.Callable}s, which return
  * booleans. If the signal handler returns <code>true</code>, the call chain
  * will continue. If the signal handler returns <code>false</code> or throws an
  * Exception, the call chain will stop (and no Exception will be thrown). If the
  * signal handler throws an Error, the Error will not be caught.
+ * <p>
+ * Signal handlers are called on the JVM's signal thread, so a slow handler
+ * delays the handling of later signals. {@link SignalListener}s registered
+ * through {@link #registerAsync(String, SignalListener)} are instead notified
+ * on a dedicated dispatcher thread, and bursts of signals are coalesced into a
+ * single notification. An asynchronous listener cannot stop the call chain,
+ * which continues immediately.
  *
  * @author Jean Niklas L'orange
  * @since <code>com.hypirion.io 0.3.0</code>
@@ -47,14 +57,46 @@ public class SignalInterceptor {
      * @param signame the POSIX signal name with <code>SIG</code> omitted.
      * @param fn the <code>Callable</code> to call. The <code>Callable</code>
      * should return either <code>true</code> or <code>false</code>.
+     * @return a registration which can unregister <code>fn</code> again.
+     * @exception SignalInterceptorException if there is no signal with the name
+     * <code>signame</code>, or if the JVM doesn't implement the most common JVM
+     * signal handling facilities.
+     */
+    public static SignalRegistration register(String signame, Callable fn)
+        throws SignalInterceptorException {
+        if (fn == null) {
+            throw new NullPointerException("fn");
+        }
+        try {
+            return SignalInterceptorHelper.register(signame, fn);
+        } catch (Throwable e) { // Catching Linkage errors etc. here
+            throw new SignalInterceptorException(signame, e);
+        }
+    }
+
+    /**
+     * Registers the {@link SignalListener} <code>listener</code> to the POSIX
+     * signal <code>signame</code>. The listener is notified on a dedicated
+     * dispatcher thread, with the number of times the signal has been raised
+     * since the last notification. The signal thread only counts the signal
+     * and continues down the call chain.
+     *
+     * @param signame the POSIX signal name with <code>SIG</code> omitted.
+     * @param listener the listener to notify.
+     * @return a registration which can unregister <code>listener</code> again.
      * @exception SignalInterceptorException if there is no signal with the name
      * <code>signame</code>, or if the JVM doesn't implement the most common JVM
      * signal handling facilities.
+     * @since <code>com.hypirion.io 0.4.0</code>
      */
-    public static void register(String signame, Callable fn)
+    public static SignalRegistration registerAsync(String signame,
+                                                   SignalListener listener)
         throws SignalInterceptorException {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
         try {
-            SignalInterceptorHelper.register(signame, fn);
+            return SignalInterceptorHelper.registerAsync(signame, listener);
         } catch (Throwable e) { // Catching Linkage errors etc. here
             throw new SignalInterceptorException(signame, e);
         }
@@ -81,4 +123,24 @@ public class SignalInterceptor {
             return false;
         }
     }
+
+    /**
+     * Registers the {@link SignalListener} <code>listener</code> to the POSIX
+     * signal <code>signame</code>, to be notified asynchronously. If
+     * successful, will return true. If the registering fails, returns false.
+     *
+     * @param signame the POSIX signal name with <code>SIG</code> omitted.
+     * @param listener the listener to notify.
+     * @see #registerAsync(String, SignalListener)
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public static boolean tryRegisterAsync(String signame,
+                                           SignalListener listener) {
+        try {
+            registerAsync(signame, listener);
+            return true;
+        } catch (SignalInterceptorException sie) {
+            return false;
+        }
+    }
 }
@@ -16,42 +16,187 @@ package com.hypirion.io;
 import sun.misc.Signal;
 import sun.misc.SignalHandler;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class SignalInterceptorHelper {
 
-    static void register(String signame, Callable fn) {
-        Signal sig = new Signal(signame);
-        WrappedCallable newHandler = new WrappedCallable(fn);
-        SignalHandler oldHandler = Signal.handle(sig, newHandler);
-        newHandler.attachOld(oldHandler);
+    private static final Map<String, Chain> chains =
+        new HashMap<String, Chain>();
+
+    static SignalRegistration register(String signame, Callable fn) {
+        Chain chain = chainFor(signame);
+        return chain.add(new CallableEntry(chain, fn));
     }
 
-    private static class WrappedCallable implements SignalHandler {
-        private Callable fn;
-        private SignalHandler oldHandler;
+    static SignalRegistration registerAsync(String signame,
+                                            SignalListener listener) {
+        Chain chain = chainFor(signame);
+        return chain.add(new AsyncEntry(chain, listener));
+    }
 
-        public WrappedCallable(Callable fn) {
-            this.fn = fn;
+    // Installs a single handler per signal the first time it is registered
+    // to, which keeps the original handler at the end of its chain.
+    private static synchronized Chain chainFor(String signame) {
+        Chain chain = chains.get(signame);
+        if (chain == null) {
+            Signal sig = new Signal(signame);
+            chain = new Chain(signame);
+            chain.attachOld(Signal.handle(sig, chain));
+            chains.put(signame, chain);
+        }
+        return chain;
+    }
+
+    private static class Chain implements SignalHandler {
+        private static final Entry[] EMPTY = new Entry[0];
+
+        private final String signame;
+        // Copy-on-write, the most recently registered entry first.
+        private volatile Entry[] entries;
+        private volatile SignalHandler oldHandler;
+
+        public Chain(String signame) {
+            this.signame = signame;
+            this.entries = EMPTY;
             this.oldHandler = null;
         }
 
         public void attachOld(SignalHandler oldHandler) {
             this.oldHandler = oldHandler;
         }
-        
+
+        public synchronized Entry add(Entry e) {
+            Entry[] old = entries;
+            Entry[] es = new Entry[old.length + 1];
+            es[0] = e;
+            System.arraycopy(old, 0, es, 1, old.length);
+            entries = es;
+            return e;
+        }
+
+        public synchronized void remove(Entry e) {
+            Entry[] old = entries;
+            for (int i = 0; i < old.length; i++) {
+                if (old[i] == e) {
+                    Entry[] es = Arrays.copyOf(old, old.length - 1);
+                    System.arraycopy(old, i + 1, es, i, old.length - i - 1);
+                    entries = es;
+                    return;
+                }
+            }
+        }
+
         public void handle(Signal sig) {
-            boolean cont = true;
-            try {
-                cont = (Boolean) fn.call();
+            for (Entry e : entries) {
+                if (!e.handle(sig)) {
+                    return;
+                }
             }
-            catch (Exception e) {}
-            finally {
-                if (cont && (oldHandler != null)) {
-                    oldHandler.handle(sig);
+            SignalHandler old = oldHandler;
+            if (isJavaHandler(old)) {
+                try {
+                    old.handle(sig);
                 }
+                catch (UnsupportedOperationException uoe) {
+                    // A native handler wrapped by Java 9 and later, which
+                    // cannot be invoked from Java.
+                }
+            }
+        }
+    }
+
+    // Native handlers, including the default and ignoring handlers, are not
+    // Java code: Invoking them from the signal thread crashes the JVM on Java
+    // 7 and 8. The signal is then considered handled by the chain.
+    private static boolean isJavaHandler(SignalHandler h) {
+        return h != null && h != SignalHandler.SIG_DFL &&
+            h != SignalHandler.SIG_IGN &&
+            !h.getClass().getName().equals("sun.misc.NativeSignalHandler");
+    }
+
+    private static abstract class Entry implements SignalRegistration {
+        private final Chain chain;
+
+        public Entry(Chain chain) {
+            this.chain = chain;
+        }
+
+        // Returns true if the call chain should continue.
+        abstract boolean handle(Signal sig);
+
+        public String getSigname() {
+            return chain.signame;
+        }
+
+        public void unregister() {
+            chain.remove(this);
+        }
+    }
+
+    private static class CallableEntry extends Entry {
+        private final Callable fn;
+
+        public CallableEntry(Chain chain, Callable fn) {
+            super(chain);
+            this.fn = fn;
+        }
+
+        boolean handle(Signal sig) {
+            try {
+                return (Boolean) fn.call();
+            }
+            catch (Exception e) {
+                return false;
             }
         }
     }
+
+    // Counts signals on the signal thread, and notifies the listener of them
+    // on the dispatcher thread. Only one notification is queued at a time.
+    private static class AsyncEntry extends Entry implements Runnable {
+        private final SignalListener listener;
+        private final AtomicInteger pending;
+
+        public AsyncEntry(Chain chain, SignalListener listener) {
+            super(chain);
+            this.listener = listener;
+            this.pending = new AtomicInteger();
+        }
+
+        boolean handle(Signal sig) {
+            if (pending.getAndIncrement() == 0) {
+                Dispatcher.EXECUTOR.execute(this);
+            }
+            return true;
+        }
+
+        public void run() {
+            int count = pending.getAndSet(0);
+            try {
+                listener.signalRaised(getSigname(), count);
+            }
+            catch (Exception e) {}
+        }
+    }
+
+    // Lazily creates the dispatcher thread the first time it is needed.
+    private static class Dispatcher {
+        static final ExecutorService EXECUTOR =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r);
+                        t.setName("SignalDispatcher");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
 }
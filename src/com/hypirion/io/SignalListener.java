@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+/**
+ * A SignalListener is notified asynchronously of POSIX signals intercepted
+ * through {@link SignalInterceptor#registerAsync(String, SignalListener)}.
+ * Signals raised while a listener is being notified, or before it gets
+ * notified, are coalesced into a single notification.
+ *
+ * @author Jean Niklas L'orange
+ * @see SignalInterceptor#registerAsync(String, SignalListener)
+ * @since <code>com.hypirion.io 0.4.0</code>
+ */
+public interface SignalListener {
+
+    /**
+     * Called when the signal <code>signame</code> has been raised
+     * <code>count</code> times since the last call.
+     *
+     * @param signame the POSIX signal name with <code>SIG</code> omitted.
+     * @param count the number of times the signal has been raised.
+     */
+    void signalRaised(String signame, int count);
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+/**
+ * A SignalRegistration is a handler or listener registered to a POSIX signal
+ * through {@link SignalInterceptor}, which may be unregistered again.
+ *
+ * @author Jean Niklas L'orange
+ * @see SignalInterceptor#register(String, java.util.concurrent.Callable)
+ * @see SignalInterceptor#registerAsync(String, SignalListener)
+ * @since <code>com.hypirion.io 0.4.0</code>
+ */
+public interface SignalRegistration {
+
+    /**
+     * Returns the name of the signal this registration is registered to, with
+     * <code>SIG</code> omitted.
+     *
+     * @return the name of the signal.
+     */
+    String getSigname();
+
+    /**
+     * Unregisters this handler or listener, so that it will not be called for
+     * signals raised afterwards. The rest of the call chain is left intact. If
+     * this registration has already been unregistered, this method does
+     * nothing.
+     */
+    void unregister();
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free queue for a single producer and a single consumer. The
+ * producer and consumer may block while the queue is full or empty, in which
+ * case they are parked, not spinning. Besides elements, the producer may send
+ * the consumer a signal, which the consumer sees once it has taken every
+ * element offered before the signal.
+ * <p>
+ * Only one thread may offer elements at a time, and only one thread may take
+ * elements at a time. Different threads may take turns being the producer as
+ * long as their turns are ordered by some other synchronization.
+ */
+final class SpscQueue<E> {
+
+    private final Object[] ring;
+    private final int mask, depth;
+
+    // Written by the consumer only.
+    private volatile long head;
+    // Written by the producer only.
+    private volatile long tail;
+    private volatile long peak;
+
+    private volatile boolean signalled;
+    private volatile Thread waitingConsumer, waitingProducer;
+
+    SpscQueue(int depth) {
+        if (depth <= 0) {
+            throw new IllegalArgumentException("depth must be positive");
+        }
+        int capacity = BufferPool.sizeClass(depth);
+        ring = new Object[capacity];
+        mask = capacity - 1;
+        this.depth = depth;
+        head = 0;
+        tail = 0;
+        peak = 0;
+        signalled = false;
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    int size() {
+        // Read head first, so that the size is never negative.
+        long h = head;
+        return (int) (tail - h);
+    }
+
+    long peak() {
+        return peak;
+    }
+
+    /**
+     * Offers an element, and returns false if the queue is full. Producer
+     * only.
+     */
+    boolean offer(E e) {
+        long t = tail;
+        long size = t - head;
+        if (size >= depth) {
+            return false;
+        }
+        ring[(int) t & mask] = e;
+        tail = t + 1;
+        if (size + 1 > peak) {
+            peak = size + 1;
+        }
+        wake(waitingConsumer);
+        return true;
+    }
+
+    /**
+     * Offers an element, parking while the queue is full. Producer only.
+     */
+    void put(E e) throws InterruptedException {
+        while (!offer(e)) {
+            waitingProducer = Thread.currentThread();
+            if (size() >= depth) {
+                LockSupport.park(this);
+            }
+            waitingProducer = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Signals the consumer. Producer only.
+     */
+    void signal() {
+        signalled = true;
+        wake(waitingConsumer);
+    }
+
+    /**
+     * Takes the next element, or returns null if the queue is empty. Consumer
+     * only.
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long h = head;
+        if (h == tail) {
+            return null;
+        }
+        int idx = (int) h & mask;
+        E e = (E) ring[idx];
+        ring[idx] = null;
+        head = h + 1;
+        wake(waitingProducer);
+        return e;
+    }
+
+    /**
+     * Returns true and clears the signal if the consumer has been signalled.
+     * Elements offered before the signal are visible to the consumer once
+     * this has returned true, but may not have been seen by an earlier poll,
+     * so the consumer must poll again before acting on the signal. Consumer
+     * only.
+     */
+    boolean takeSignal() {
+        if (signalled) {
+            signalled = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Parks the consumer until the queue is non-empty or signalled, or until
+     * nanos have passed if nanos is non-negative. May return spuriously.
+     * Consumer only.
+     */
+    void awaitConsumer(long nanos) throws InterruptedException {
+        waitingConsumer = Thread.currentThread();
+        if (head == tail && !signalled) {
+            if (nanos < 0) {
+                LockSupport.park(this);
+            }
+            else {
+                LockSupport.parkNanos(this, nanos);
+            }
+        }
+        waitingConsumer = null;
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    private static void wake(Thread t) {
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+}
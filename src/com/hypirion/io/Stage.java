@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Stage is a transfer which hands the chunks read by a pipe to a stage
+ * thread through a bounded, lock-free single-producer/single-consumer queue,
+ * so that the pump thread can keep reading while the stage thread processes
+ * and writes out the chunks. Chunk buffers are taken from a buffer pool, and
+ * released once processed.
+ * <p>
+ * Flushes are signalled to the stage instead of queued, as a pipe may flush
+ * from another thread than its pump thread. The stage sees a flush as a FLUSH
+ * chunk once it has taken every chunk queued before the flush.
+ * <p>
+ * The stage thread is started from the helper executor of the pipe's group
+ * when the first chunk is written, and runs until the pipe finishes. It must
+ * not share a bounded set of threads with the pump, as the pump may block on
+ * a full queue until the stage runs.
+ */
+abstract class Stage implements Pipe.Transfer, Runnable {
+
+    // Taken by the stage when it should flush or finish.
+    static final Chunk FLUSH = new Chunk(null, 0);
+    static final Chunk END = new Chunk(null, 0);
+
+    private final InputStream in;
+    private final int bufsize;
+    private final BufferPool pool;
+    private final Executor executor;
+    private final SpscQueue<Chunk> queue;
+    private final CountDownLatch done;
+    private byte[] current;
+    private boolean started, ended, endTaken, flushTaken;
+    private volatile Throwable failure;
+
+    Stage(InputStream in, int bufsize, int depth, BufferPool pool,
+          Executor executor) {
+        this.in = in;
+        this.bufsize = bufsize;
+        this.pool = pool;
+        this.executor = executor;
+        queue = new SpscQueue<Chunk>(depth);
+        done = new CountDownLatch(1);
+        current = null;
+        started = false;
+        ended = false;
+        endTaken = false;
+        flushTaken = false;
+        failure = null;
+    }
+
+    @Override
+    public int read() throws IOException {
+        current = pool.acquireBytes(bufsize);
+        int n = in.read(current, 0, bufsize);
+        if (n < 0) {
+            pool.release(current);
+            current = null;
+        }
+        return n;
+    }
+
+    @Override
+    public void write(int count) throws IOException {
+        Chunk c = new Chunk(current, count);
+        current = null;
+        if (failure != null) {
+            release(c);
+            checkFailure();
+        }
+        if (!started) {
+            try {
+                executor.execute(this);
+            }
+            catch (RuntimeException re) {
+                release(c);
+                throw re;
+            }
+            started = true;
+        }
+        put(c);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        checkFailure();
+        if (started) {
+            queue.signal();
+        }
+    }
+
+    /**
+     * Makes the stage finish once it has processed all queued chunks, and
+     * waits for it to do so. If the stage was never started, it is run on the
+     * calling thread. Returns the exception which made the stage fail, if any.
+     * Only called once the pipe has finished.
+     */
+    Throwable finish() {
+        if (current != null) {
+            pool.release(current);
+            current = null;
+        }
+        boolean interrupted = false;
+        try {
+            if (!ended) {
+                ended = true;
+                while (true) {
+                    try {
+                        queue.put(END);
+                        break;
+                    }
+                    catch (InterruptedException ie) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (!started) {
+                started = true;
+                run();
+            }
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                }
+                catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+        }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return failure;
+    }
+
+    /**
+     * Returns the number of chunks queued for the stage.
+     */
+    int queued() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the highest number of chunks which have been queued at once.
+     */
+    long peakQueued() {
+        return queue.peak();
+    }
+
+    /**
+     * Returns the maximal number of chunks which can be queued.
+     */
+    int depth() {
+        return queue.depth();
+    }
+
+    @Override
+    public void run() {
+        try {
+            process();
+        }
+        catch (Throwable t) {
+            failure = t;
+            // Keep draining, so that the pump never blocks on a dead stage.
+            drain();
+        }
+        finally {
+            done.countDown();
+        }
+    }
+
+    /**
+     * Processes chunks until END is taken from the queue.
+     */
+    abstract void process() throws IOException, InterruptedException;
+
+    /**
+     * Takes the next chunk from the queue, waiting at most millis if
+     * non-negative. Returns null if the wait timed out.
+     */
+    Chunk take(long millis) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        long deadline = System.nanoTime() + nanos;
+        while (true) {
+            Chunk c = poll();
+            if (c != null) {
+                return c;
+            }
+            if (millis < 0) {
+                queue.awaitConsumer(-1);
+            }
+            else {
+                nanos = deadline - System.nanoTime();
+                if (nanos <= 0) {
+                    return null;
+                }
+                queue.awaitConsumer(nanos);
+            }
+        }
+    }
+
+    /**
+     * Returns the next chunk from the queue, FLUSH if the queue is empty and a
+     * flush has been signalled, or null otherwise.
+     */
+    Chunk poll() {
+        Chunk c = queue.poll();
+        if (c == null) {
+            // Chunks queued right before the signal may not have been seen
+            // by the first poll, so poll again after taking the signal, and
+            // only hand over the flush once the queue is empty.
+            flushTaken |= queue.takeSignal();
+            c = queue.poll();
+            if (c == null) {
+                if (flushTaken) {
+                    flushTaken = false;
+                    return FLUSH;
+                }
+                return null;
+            }
+        }
+        return taken(c);
+    }
+
+    /**
+     * Releases the buffer of a processed chunk.
+     */
+    void release(Chunk c) {
+        if (c.data != null) {
+            pool.release(c.data);
+        }
+    }
+
+    private Chunk taken(Chunk c) {
+        if (c == END) {
+            endTaken = true;
+        }
+        return c;
+    }
+
+    private void drain() {
+        while (!endTaken) {
+            Chunk c;
+            try {
+                c = take(-1);
+            }
+            catch (InterruptedException ie) {
+                return;
+            }
+            release(c);
+        }
+    }
+
+    private void put(Chunk c) throws IOException {
+        try {
+            queue.put(c);
+        }
+        catch (InterruptedException ie) {
+            release(c);
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure;
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        }
+        if (t != null) {
+            throw new IOException(t);
+        }
+    }
+
+    static final class Chunk {
+        final byte[] data;
+        final int count;
+
+        Chunk(byte[] data, int count) {
+            this.data = data;
+            this.count = count;
+        }
+    }
+}
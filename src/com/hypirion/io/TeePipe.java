@@ -0,0 +1,509 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A TeePipe is a pipe which copies all data from a single input stream to
+ * multiple output streams. Every chunk is read once from the input stream and
+ * shared between all output streams, which are called sinks.
+ * <p>
+ * Every sink has its own bounded queue of chunks and its own writer, which
+ * runs on a helper thread of the pipe's group, see {@link PipeGroup}. A slow
+ * sink will therefore not slow down other sinks until its queue is full. What
+ * happens then is decided by the sink's {@link Overflow} policy. A sink flushes
+ * its output stream whenever its queue becomes empty, so the flush policy of a
+ * TeePipe has no effect.
+ * <p>
+ * Stopping a TeePipe releases the pipe if it waits for room in the queue of a
+ * sink with the {@link Overflow#BLOCK} policy. The chunk it waited to queue
+ * is then dropped by that sink.
+ * <p>
+ * When a TeePipe finishes, it waits until all sinks have written their queued
+ * chunks before threads waiting in {@link #join()} are released. A TeePipe
+ * does not close any of its streams.
+ *
+ * @author Jean Niklas L'orange
+ * @see Pipe
+ * @since <code>com.hypirion.io 0.4.0</code>
+ */
+public class TeePipe extends Pipe {
+
+    /**
+     * The default number of chunks a sink can queue up.
+     */
+    public static final int DEFAULT_QUEUE_DEPTH = 16;
+
+    /**
+     * What to do when a chunk is written to a sink with a full queue.
+     */
+    public enum Overflow {
+        /** Wait until the sink has room, which slows down the whole pipe. */
+        BLOCK,
+        /** Drop the oldest chunk in the sink's queue. */
+        DROP_OLDEST,
+        /** Disconnect the sink and drop all chunks in its queue. */
+        DISCONNECT
+    }
+
+    private final TeeTransfer transfer;
+
+    /**
+     * Creates a new tee pipe without any sinks, which reads data from the
+     * stream <code>in</code> once started.
+     *
+     * @param in the input stream to read from.
+     */
+    public TeePipe(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new tee pipe with buffer size <code>bufsize</code> without any
+     * sinks, which reads data from the stream <code>in</code> once started.
+     *
+     * @param in the input stream to read from.
+     * @param bufsize the buffer size of the pipe.
+     */
+    public TeePipe(InputStream in, int bufsize) {
+        this(in, bufsize, PipeGroup.DEDICATED);
+    }
+
+    /**
+     * Creates a new tee pipe with buffer size <code>bufsize</code> without any
+     * sinks, which reads data from the stream <code>in</code> once started. The
+     * pipe will run on a thread from <code>group</code>, and the writers of
+     * its sinks on helper threads of <code>group</code>.
+     *
+     * @param in the input stream to read from.
+     * @param bufsize the buffer size of the pipe.
+     * @param group the pipe group to run this pipe in.
+     */
+    public TeePipe(InputStream in, int bufsize, PipeGroup group) {
+        this(new TeeTransfer(in, bufsize, group.helpers()), group);
+    }
+
+    private TeePipe(TeeTransfer transfer, PipeGroup group) {
+        super(transfer, group);
+        this.transfer = transfer;
+    }
+
+    /**
+     * Adds the output stream <code>out</code> as a sink to this pipe, with a
+     * queue of {@link #DEFAULT_QUEUE_DEPTH} chunks and the overflow policy
+     * {@link Overflow#BLOCK}.
+     *
+     * @param out the output stream to write out to.
+     * @return the new sink.
+     */
+    public Sink addSink(OutputStream out) {
+        return addSink(out, DEFAULT_QUEUE_DEPTH, Overflow.BLOCK);
+    }
+
+    /**
+     * Adds the output stream <code>out</code> as a sink to this pipe, with a
+     * queue of <code>depth</code> chunks and the overflow policy
+     * <code>overflow</code>. The sink receives all chunks read after it has
+     * been added, and its writer is started immediately. If this pipe has
+     * already finished, the sink is disconnected immediately.
+     *
+     * @param out the output stream to write out to.
+     * @param depth the maximal number of chunks in the sink's queue.
+     * @param overflow what to do when the sink's queue is full.
+     * @return the new sink.
+     * @exception IllegalArgumentException if <code>depth &lt;= 0</code>.
+     */
+    public Sink addSink(OutputStream out, int depth, Overflow overflow) {
+        if (depth <= 0) {
+            throw new IllegalArgumentException("depth must be positive");
+        }
+        if (overflow == null) {
+            throw new NullPointerException("overflow");
+        }
+        return transfer.addSink(new Sink(out, depth, overflow));
+    }
+
+    /**
+     * Stops this pipe, and releases it if it waits for room in the queue of a
+     * sink. Will wait until the last blocking read has finished if
+     * <code>block</code> is true, and will otherwise notify this pipe and
+     * return immediately.
+     *
+     * @param block whether to wait for the blocking read (if any) or not.
+     *
+     * @exception InterruptedException if this thread is interrupted while
+     * waiting.
+     */
+    @Override
+    public synchronized void stop(boolean block) throws InterruptedException {
+        // Stop first, so the pumper doesn't drop more than its current chunk.
+        super.stop(false);
+        transfer.unblock();
+        if (block) {
+            join();
+        }
+    }
+
+    /**
+     * Waits until all sinks have written their queued chunks. Called by the
+     * pipe once it has finished piping.
+     */
+    @Override
+    protected void pipeFinished() {
+        transfer.finish();
+    }
+
+    /**
+     * A Sink is an output stream of a {@link TeePipe}, along with its queue and
+     * writer.
+     *
+     * @since <code>com.hypirion.io 0.4.0</code>
+     */
+    public static final class Sink {
+        // Put on the queue to make the writer finish.
+        private static final Chunk END = new Chunk(0, null);
+
+        private final OutputStream out;
+        private final BlockingQueue<Chunk> queue;
+        private final Overflow overflow;
+        private final CountDownLatch done;
+        private volatile boolean connected;
+        private volatile IOException failure;
+        private volatile long dropped;
+        private volatile boolean unblocked;
+        private volatile Thread waitingProducer;
+        private boolean endQueued;
+
+        Sink(OutputStream out, int depth, Overflow overflow) {
+            this.out = out;
+            this.queue = new ArrayBlockingQueue<Chunk>(depth);
+            this.overflow = overflow;
+            done = new CountDownLatch(1);
+            connected = true;
+            failure = null;
+            dropped = 0;
+            unblocked = false;
+            endQueued = false;
+        }
+
+        /**
+         * Returns true if this sink still receives chunks from its pipe. A sink
+         * is disconnected if writing to it fails, if its overflow policy is
+         * {@link Overflow#DISCONNECT} and its queue overflows, or when its pipe
+         * has finished and it has written all its chunks.
+         *
+         * @return whether this sink is connected or not.
+         */
+        public boolean isConnected() {
+            return connected;
+        }
+
+        /**
+         * Returns the exception thrown when writing to this sink, or
+         * <code>null</code> if writing to this sink has not failed.
+         *
+         * @return the exception which made this sink fail, or
+         * <code>null</code>.
+         */
+        public IOException getFailure() {
+            return failure;
+        }
+
+        /**
+         * Returns the number of chunks which have been dropped by this sink.
+         *
+         * @return the number of dropped chunks.
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * Returns the number of chunks currently waiting in this sink's queue.
+         *
+         * @return the number of queued chunks.
+         */
+        public int getQueued() {
+            return queue.size();
+        }
+
+        // Called by the pumper.
+        void offer(Chunk c) throws InterruptedException {
+            if (!connected) {
+                return;
+            }
+            c.retain();
+            switch (overflow) {
+            case BLOCK:
+                while (!queue.offer(c)) {
+                    waitingProducer = Thread.currentThread();
+                    if (queue.remainingCapacity() == 0 && !unblocked) {
+                        LockSupport.park(this);
+                    }
+                    waitingProducer = null;
+                    if (unblocked) {
+                        dropped++;
+                        c.release();
+                        return;
+                    }
+                    if (Thread.interrupted()) {
+                        c.release();
+                        throw new InterruptedException();
+                    }
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(c)) {
+                    Chunk old = queue.poll();
+                    if (old != null) {
+                        dropped++;
+                        old.release();
+                    }
+                }
+                break;
+            case DISCONNECT:
+                if (!queue.offer(c)) {
+                    c.release();
+                    connected = false;
+                    Chunk old;
+                    while ((old = queue.poll()) != null) {
+                        dropped++;
+                        old.release();
+                    }
+                    end();
+                }
+                break;
+            }
+        }
+
+        // Makes the pumper drop chunks instead of waiting for room.
+        void unblock() {
+            unblocked = true;
+            wake();
+        }
+
+        private void wake() {
+            Thread t = waitingProducer;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+
+        // Makes the writer finish once it has written its queued chunks.
+        synchronized void end() throws InterruptedException {
+            if (!endQueued) {
+                endQueued = true;
+                queue.put(END);
+            }
+        }
+
+        Runnable writer() {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    write();
+                }
+            };
+        }
+
+        private void write() {
+            boolean unflushed = false;
+            try {
+                while (true) {
+                    Chunk c = queue.take();
+                    wake();
+                    if (c == END) {
+                        break;
+                    }
+                    try {
+                        if (failure == null) {
+                            out.write(c.data, 0, c.count);
+                            unflushed = true;
+                            if (queue.isEmpty()) {
+                                out.flush();
+                                unflushed = false;
+                            }
+                        }
+                    }
+                    catch (IOException ioe) {
+                        // Keep taking chunks, so the pumper won't block on us.
+                        failure = ioe;
+                        connected = false;
+                    }
+                    finally {
+                        c.release();
+                    }
+                }
+                if (unflushed && failure == null) {
+                    out.flush();
+                }
+            }
+            catch (IOException ioe) {
+                failure = ioe;
+            }
+            catch (InterruptedException ie) {
+                failure = new InterruptedIOException();
+            }
+            finally {
+                connected = false;
+                done.countDown();
+            }
+        }
+    }
+
+    private static class Chunk {
+        final byte[] data;
+        final Queue<Chunk> pool;
+        final AtomicInteger refs;
+        int count;
+
+        Chunk(int bufsize, Queue<Chunk> pool) {
+            data = new byte[bufsize];
+            this.pool = pool;
+            refs = new AtomicInteger(1);
+        }
+
+        void retain() {
+            refs.incrementAndGet();
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0) {
+                refs.set(1);
+                pool.offer(this);
+            }
+        }
+    }
+
+    private static class TeeTransfer implements Transfer {
+        private final InputStream in;
+        private final int bufsize;
+        private final Executor writers;
+        private final List<Sink> sinks;
+        private final Queue<Chunk> pool;
+        private Chunk current;
+        private boolean finished;
+
+        public TeeTransfer(InputStream in, int bufsize, Executor writers) {
+            this.in = in;
+            this.bufsize = bufsize;
+            this.writers = writers;
+            sinks = new CopyOnWriteArrayList<Sink>();
+            pool = new ConcurrentLinkedQueue<Chunk>();
+            current = null;
+            finished = false;
+        }
+
+        public Sink addSink(Sink sink) {
+            writers.execute(sink.writer());
+            synchronized (this) {
+                if (!finished) {
+                    sinks.add(sink);
+                    return sink;
+                }
+                try {
+                    sink.end();
+                }
+                catch (InterruptedException ie) {
+                    // The queue is empty, so we'll never wait.
+                }
+            }
+            return sink;
+        }
+
+        @Override
+        public int read() throws IOException {
+            current = pool.poll();
+            if (current == null) {
+                current = new Chunk(bufsize, pool);
+            }
+            return in.read(current.data);
+        }
+
+        @Override
+        public void write(int count) throws IOException {
+            Chunk c = current;
+            current = null;
+            c.count = count;
+            try {
+                for (Sink sink : sinks) {
+                    sink.offer(c);
+                }
+            }
+            catch (InterruptedException ie) {
+                throw new InterruptedIOException();
+            }
+            finally {
+                c.release();
+            }
+        }
+
+        @Override
+        public void flush() {
+            // Every sink flushes by itself.
+        }
+
+        public void unblock() {
+            for (Sink sink : sinks) {
+                sink.unblock();
+            }
+        }
+
+        public void finish() {
+            boolean interrupted = false;
+            synchronized (this) {
+                finished = true;
+                for (Sink sink : sinks) {
+                    while (true) {
+                        try {
+                            sink.end();
+                            break;
+                        }
+                        catch (InterruptedException ie) {
+                            interrupted = true;
+                        }
+                    }
+                }
+            }
+            for (Sink sink : sinks) {
+                while (true) {
+                    try {
+                        sink.done.await();
+                        break;
+                    }
+                    catch (InterruptedException ie) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+/**
+ * A Throttle limits the rate at which pipes transfer data, through a token
+ * bucket: The bucket is filled with <code>rate</code> tokens per second, up
+ * to <code>burst</code> tokens, and a pipe must take one token per byte or
+ * char it transfers. Pipes sharing a throttle share its budget.
+ * <p>
+ * A pipe takes tokens for every chunk it has read before writing it. If the
+ * bucket runs dry, the pipe goes into debt and sleeps until the debt is paid
+ * off, which lets chunks larger than the burst size through. A pipe never
+ * spins while waiting, and oversleeping refills the bucket, so the average
+ * rate stays accurate as long as <code>burst</code> is at least a
+ * millisecond's worth of tokens.
+ *
+ * @author Jean Niklas L'orange
+ * @see Pipe#setThrottle(Throttle)
+ * @since <code>com.hypirion.io 0.4.0</code>
+ */
+public final class Throttle {
+
+    private static final long WINDOW_NANOS = 1000000000L;
+
+    private final double rate, burst;
+    private double tokens;
+    private long lastRefill;
+    private long windowStart, windowCount;
+    private double observedRate;
+
+    /**
+     * Creates a new throttle which lets through <code>rate</code> bytes or
+     * chars per second, with bursts of up to <code>burst</code> bytes or
+     * chars. The bucket starts out full.
+     *
+     * @param rate the number of bytes or chars per second.
+     * @param burst the maximal burst size.
+     * @exception IllegalArgumentException if <code>rate &lt;= 0</code> or
+     * <code>burst &lt;= 0</code>.
+     */
+    public Throttle(long rate, long burst) {
+        if (rate <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("rate and burst must be positive");
+        }
+        this.rate = rate;
+        this.burst = burst;
+        tokens = burst;
+        lastRefill = System.nanoTime();
+        windowStart = lastRefill;
+        windowCount = 0;
+        observedRate = 0;
+    }
+
+    /**
+     * Returns the number of bytes or chars this throttle lets through per
+     * second.
+     *
+     * @return the rate of this throttle.
+     */
+    public long getRate() {
+        return (long) rate;
+    }
+
+    /**
+     * Returns the maximal burst size of this throttle.
+     *
+     * @return the burst size of this throttle.
+     */
+    public long getBurst() {
+        return (long) burst;
+    }
+
+    /**
+     * Returns the rate at which data has passed through this throttle,
+     * measured in bytes or chars per second over the last second.
+     *
+     * @return the observed rate of this throttle.
+     */
+    public synchronized double getObservedRate() {
+        long now = System.nanoTime();
+        roll(now);
+        long elapsed = now - windowStart;
+        if (observedRate == 0 && elapsed > 0) {
+            // No full window yet, report what we've got so far.
+            return windowCount * 1e9 / elapsed;
+        }
+        return observedRate;
+    }
+
+    // Takes count tokens, and returns the number of nanoseconds the caller
+    // must wait before using them.
+    synchronized long reserve(int count) {
+        long now = System.nanoTime();
+        roll(now);
+        windowCount += count;
+        tokens = Math.min(burst, tokens + (now - lastRefill) * rate / 1e9);
+        lastRefill = now;
+        tokens -= count;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) (-tokens * 1e9 / rate);
+    }
+
+    // Must be called while holding the lock.
+    private void roll(long now) {
+        long elapsed = now - windowStart;
+        if (elapsed >= 2 * WINDOW_NANOS) {
+            observedRate = 0;
+            windowStart = now;
+            windowCount = 0;
+        }
+        else if (elapsed >= WINDOW_NANOS) {
+            observedRate = windowCount * 1e9 / elapsed;
+            windowStart = now;
+            windowCount = 0;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+
+package com.hypirion.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.RandomStringUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class AsyncPipeTest {
+
+    private AsynchronousChannelGroup group;
+    private AsynchronousServerSocketChannel server;
+
+    @Before
+    public void setUp() throws Exception {
+        group = AsynchronousChannelGroup
+            .withFixedThreadPool(2, Executors.defaultThreadFactory());
+        server = AsynchronousServerSocketChannel.open(group)
+            .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        group.shutdownNow();
+        group.awaitTermination(1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Tests that an async pipe sends a file over a socket, starting at the
+     * given position.
+     */
+    @Test(timeout=2000)
+    public void testFileToSocket() throws Exception {
+        byte[] bytes = RandomStringUtils.random(20000).getBytes("UTF-8");
+        File f = File.createTempFile("asyncpipe", null);
+        f.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(f);
+        fos.write(bytes);
+        fos.close();
+        AsynchronousFileChannel file =
+            AsynchronousFileChannel.open(f.toPath(), StandardOpenOption.READ);
+        AsynchronousSocketChannel[] conn = connect();
+        AsyncPipe p = new AsyncPipe(file, 10, conn[0]);
+        p.start();
+        p.joinOrThrow();
+        conn[0].shutdownOutput();
+        file.close();
+        byte[] read = readAll(conn[1]);
+        assertEquals(bytes.length - 10, read.length);
+        for (int i = 0; i < read.length; i++) {
+            assertEquals(bytes[i + 10], read[i]);
+        }
+        assertEquals(bytes.length - 10, p.getStats().getTransferred());
+        assertEquals(Pipe.State.FINISHED, p.getState());
+    }
+
+    /**
+     * Tests that many socket relays can run on a channel group with two
+     * threads.
+     */
+    @Test(timeout=5000)
+    public void testManyRelays() throws Exception {
+        int n = 50;
+        byte[] bytes = RandomStringUtils.random(5000).getBytes("UTF-8");
+        AsynchronousSocketChannel[][] src = new AsynchronousSocketChannel[n][];
+        AsynchronousSocketChannel[][] dst = new AsynchronousSocketChannel[n][];
+        AsyncPipe[] pipes = new AsyncPipe[n];
+        BufferPool pool = new BufferPool(64, true, false);
+        for (int i = 0; i < n; i++) {
+            src[i] = connect();
+            dst[i] = connect();
+            pipes[i] = new AsyncPipe(src[i][1], dst[i][0], 256, pool);
+            pipes[i].start();
+        }
+        for (int i = 0; i < n; i++) {
+            writeAll(src[i][0], bytes);
+            src[i][0].shutdownOutput();
+        }
+        for (int i = 0; i < n; i++) {
+            pipes[i].joinOrThrow();
+            dst[i][0].shutdownOutput();
+            assertArrayEquals(bytes, readAll(dst[i][1]));
+        }
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    /**
+     * Tests that a paused async pipe does not read any more data until it is
+     * started again, and that a stopped pipe finishes.
+     */
+    @Test(timeout=2000)
+    public void testPauseAndStop() throws Exception {
+        AsynchronousSocketChannel[] src = connect();
+        AsynchronousSocketChannel[] dst = connect();
+        AsyncPipe p = new AsyncPipe(src[1], dst[0]);
+        assertEquals(Pipe.State.NEW, p.getState());
+        p.start();
+        writeAll(src[0], new byte[] {1});
+        assertArrayEquals(new byte[] {1}, readSome(dst[1], 1));
+
+        // Pausing takes effect after the current read and write, so the
+        // second byte may or may not have been relayed once paused.
+        p.pause(false);
+        assertEquals(Pipe.State.PAUSED, p.getState());
+        writeAll(src[0], new byte[] {2});
+        p.pause();
+        long sent = p.getStats().getTransferred();
+        if (sent == 2) {
+            assertArrayEquals(new byte[] {2}, readSome(dst[1], 1));
+        }
+
+        writeAll(src[0], new byte[] {3});
+        ByteBuffer bb = ByteBuffer.allocate((int) (3 - sent));
+        Future<Integer> f = dst[1].read(bb);
+        Thread.sleep(100);
+        assertFalse(f.isDone());
+        p.start();
+        f.get();
+        while (bb.hasRemaining()) {
+            dst[1].read(bb).get();
+        }
+        assertEquals(3, bb.get(bb.limit() - 1));
+
+        // Stopping waits for the pending read, which ends with the input.
+        p.stop(false);
+        assertEquals(Pipe.State.STOPPING, p.getState());
+        src[0].shutdownOutput();
+        p.join();
+        assertEquals(Pipe.State.FINISHED, p.getState());
+        assertNull(p.getFailure());
+        assertEquals(3, p.getStats().getTransferred());
+    }
+
+    private AsynchronousSocketChannel[] connect() throws Exception {
+        Future<AsynchronousSocketChannel> accepted = server.accept();
+        AsynchronousSocketChannel client =
+            AsynchronousSocketChannel.open(group);
+        client.connect(server.getLocalAddress()).get();
+        return new AsynchronousSocketChannel[] {client, accepted.get()};
+    }
+
+    private static void writeAll(AsynchronousByteChannel ch, byte[] bytes)
+        throws Exception {
+        ByteBuffer bb = ByteBuffer.wrap(bytes);
+        while (bb.hasRemaining()) {
+            ch.write(bb).get();
+        }
+    }
+
+    private static byte[] readSome(AsynchronousByteChannel ch, int len)
+        throws Exception {
+        ByteBuffer bb = ByteBuffer.allocate(len);
+        while (bb.hasRemaining() && ch.read(bb).get() >= 0) {
+            // Keep reading.
+        }
+        return bb.array();
+    }
+
+    private static byte[] readAll(AsynchronousByteChannel ch)
+        throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer bb = ByteBuffer.allocate(4096);
+        while (ch.read(bb).get() >= 0) {
+            out.write(bb.array(), 0, bb.position());
+            bb.clear();
+        }
+        return out.toByteArray();
+    }
+}
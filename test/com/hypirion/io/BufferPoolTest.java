@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.lang3.RandomStringUtils;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+
+    /**
+     * Tests that arrays are rounded up to their size class, reused once
+     * released and accounted for while outstanding.
+     */
+    @Test(timeout=1000)
+    public void testReuseAndAccounting() {
+        BufferPool pool = new BufferPool();
+        byte[] b = pool.acquireBytes(1000);
+        assertEquals(1024, b.length);
+        char[] c = pool.acquireChars(16);
+        assertEquals(16, c.length);
+        assertEquals(2, pool.getOutstanding());
+        assertEquals(1024 + 32, pool.getOutstandingBytes());
+        pool.release(b);
+        pool.release(c);
+        assertEquals(0, pool.getOutstanding());
+        assertEquals(0, pool.getOutstandingBytes());
+        assertEquals(1024 + 32, pool.getPeakBytes());
+        assertSame(b, pool.acquireBytes(513));
+        assertSame(c, pool.acquireChars(9));
+    }
+
+    /**
+     * Tests that a direct pool with a thread cache hands out direct buffers
+     * with the requested limit, and reuses them.
+     */
+    @Test(timeout=1000)
+    public void testDirectThreadCache() {
+        BufferPool pool = new BufferPool(0, true, true);
+        ByteBuffer bb = pool.acquireBuffer(100);
+        assertTrue(bb.isDirect());
+        assertEquals(128, bb.capacity());
+        assertEquals(100, bb.limit());
+        pool.release(bb);
+        // Nothing is pooled outside the thread cache.
+        assertSame(bb, pool.acquireBuffer(128));
+        assertEquals(128, bb.limit());
+        assertEquals(1, pool.getOutstanding());
+    }
+
+    /**
+     * Tests that pipes and revivable input streams give their buffers back to
+     * their pool once they are done with them.
+     */
+    @Test(timeout=1000)
+    public void testPipesReleaseBuffers() throws Exception {
+        BufferPool pool = new BufferPool();
+        byte[] bytes = RandomStringUtils.random(3708).getBytes("UTF-8");
+        InputStream in = new RevivableInputStream(
+            new ByteArrayInputStream(bytes), 100, false, pool);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Pipe p = new ClosingPipe(in, out, 1000, PipeGroup.DEDICATED, pool);
+        assertEquals(2, pool.getOutstanding());
+        p.start();
+        p.join();
+        assertArrayEquals(bytes, out.toByteArray());
+        assertEquals(1, pool.getOutstanding());
+        in.close();
+        while (pool.getOutstanding() > 0) {
+            Thread.sleep(5); // The reader thread releases its buffer
+        }
+        assertEquals(1024 + 128, pool.getPeakBytes());
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.RandomStringUtils;
+
+import com.hypirion.io.ChannelPipe;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ChannelPipeTest {
+
+    /**
+     * Tests that data is completely piped between two channels which are not
+     * file channels.
+     */
+    @Test(timeout=1000)
+    public void testBasicChannelCapabilities() throws Exception {
+        String input = RandomStringUtils.random(3708);
+        byte[] bytes = input.getBytes("UTF-8");
+        ReadableByteChannel in =
+            Channels.newChannel(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel wout = Channels.newChannel(out);
+        Pipe p = new ChannelPipe(in, wout);
+        p.start();
+        p.join();
+        in.close();
+        assertEquals(input, out.toString("UTF-8"));
+    }
+
+    /**
+     * Tests that data is completely piped from a file channel to another
+     * channel.
+     */
+    @Test(timeout=1000)
+    public void testFileToChannel() throws Exception {
+        String input = RandomStringUtils.random(40023);
+        File f = File.createTempFile("channelpipe", ".txt");
+        f.deleteOnExit();
+        FileUtils.writeStringToFile(f, input, "UTF-8");
+        FileChannel in = new FileInputStream(f).getChannel();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Pipe p = new ChannelPipe(in, Channels.newChannel(out));
+        p.start();
+        p.join();
+        in.close();
+        assertEquals(input, out.toString("UTF-8"));
+    }
+
+    /**
+     * Tests that data is completely piped from a channel to a file channel.
+     */
+    @Test(timeout=1000)
+    public void testChannelToFile() throws Exception {
+        String input = RandomStringUtils.random(40023);
+        byte[] bytes = input.getBytes("UTF-8");
+        File f = File.createTempFile("channelpipe", ".txt");
+        f.deleteOnExit();
+        ReadableByteChannel in =
+            Channels.newChannel(new ByteArrayInputStream(bytes));
+        FileChannel out = new FileOutputStream(f).getChannel();
+        Pipe p = new ChannelPipe(in, out);
+        p.start();
+        p.join();
+        out.close();
+        assertEquals(input, FileUtils.readFileToString(f, "UTF-8"));
+    }
+
+    /**
+     * Tests that a pipe from a file fails instead of spinning when the output
+     * channel accepts no data.
+     */
+    @Test(timeout=2000)
+    public void testFileToFullChannel() throws Exception {
+        File f = File.createTempFile("channelpipe", null);
+        f.deleteOnExit();
+        FileUtils.writeByteArrayToFile(f, new byte[1 << 20]);
+        FileChannel in = new FileInputStream(f).getChannel();
+        java.nio.channels.Pipe sink = java.nio.channels.Pipe.open();
+        sink.sink().configureBlocking(false);
+        Pipe p = new ChannelPipe(in, sink.sink());
+        p.start();
+        p.join();
+        assertTrue(p.getFailure() instanceof IOException);
+        in.close();
+        sink.sink().close();
+        sink.source().close();
+    }
+
+    /**
+     * Tests that a read into a file returns once a buffer of data has arrived,
+     * instead of waiting for a whole transfer chunk.
+     */
+    @Test(timeout=2000)
+    public void testPartialChunkToFile() throws Exception {
+        File f = File.createTempFile("channelpipe", null);
+        f.deleteOnExit();
+        FileChannel out = new FileOutputStream(f).getChannel();
+        java.nio.channels.Pipe source = java.nio.channels.Pipe.open();
+        Pipe p = new ChannelPipe(source.source(), out);
+        p.start();
+        source.sink().write(ByteBuffer.wrap("0123456789".getBytes("UTF-8")));
+        // The read must return, so that the pipe can be paused or stopped.
+        while (p.getStats().getReads() == 0) {
+            Thread.sleep(5);
+        }
+        assertEquals(10, f.length());
+        source.sink().close();
+        p.join();
+        assertNull(p.getFailure());
+        assertEquals("0123456789", FileUtils.readFileToString(f, "UTF-8"));
+        out.close();
+        source.source().close();
+    }
+}
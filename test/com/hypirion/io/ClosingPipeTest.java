@@ -73,6 +73,37 @@ public class ClosingPipeTest {
                    wrapper.isClosed);
     }
 
+    /**
+     * Tests that a ClosingPipe told to close its input source flushes and
+     * closes the output source before closing the input source.
+     */
+    @Test(timeout=1000)
+    public void testCloseOrdering() throws Exception {
+        final StringBuilder events = new StringBuilder();
+        InputStream in = new ByteArrayInputStream(new byte[] {1, 2, 3}) {
+                @Override
+                public void close() {
+                    events.append("close-in ");
+                }
+            };
+        OutputStream out = new ByteArrayOutputStream() {
+                @Override
+                public void flush() {
+                    events.append("flush ");
+                }
+                @Override
+                public void close() {
+                    events.append("close-out ");
+                }
+            };
+        ClosingPipe p = new ClosingPipe(in, out);
+        p.setFlushPolicy(FlushPolicy.ON_FINISH);
+        p.setCloseInput(true);
+        p.start();
+        p.join();
+        assertTrue(events.toString().endsWith("flush close-out close-in "));
+    }
+
     public static class CloseCheckingOutputStream extends OutputStream {
         volatile boolean isClosed;
         final OutputStream out;
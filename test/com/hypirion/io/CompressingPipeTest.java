@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.RandomStringUtils;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CompressingPipeTest {
+
+    /**
+     * Tests that a compressing pipe produces a valid gzip stream, and that a
+     * higher compression level compresses better.
+     */
+    @Test(timeout=2000)
+    public void testGzipLevels() throws Exception {
+        byte[] bytes = RandomStringUtils.random(100000, "abcdefgh")
+            .getBytes("UTF-8");
+        ByteArrayOutputStream fast = new ByteArrayOutputStream();
+        ByteArrayOutputStream best = new ByteArrayOutputStream();
+        Pipe p = new CompressingPipe(new ByteArrayInputStream(bytes), fast,
+                                     CompressionFormat.GZIP, 0);
+        Pipe q = new CompressingPipe(new ByteArrayInputStream(bytes), best,
+                                     CompressionFormat.GZIP, 9);
+        p.start();
+        q.start();
+        p.joinOrThrow();
+        q.joinOrThrow();
+        assertTrue(best.size() < fast.size());
+        for (ByteArrayOutputStream out : new ByteArrayOutputStream[] {fast,
+                                                                      best}) {
+            GZIPInputStream gz =
+                new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()));
+            assertArrayEquals(bytes, IOUtils.toByteArray(gz));
+        }
+    }
+
+    /**
+     * Tests that data compressed by a compressing pipe comes out unchanged
+     * from a decompressing pipe, for both formats.
+     */
+    @Test(timeout=2000)
+    public void testRoundTrip() throws Exception {
+        byte[] bytes = RandomStringUtils.random(50000).getBytes("UTF-8");
+        for (CompressionFormat format : CompressionFormat.values()) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            Pipe p = new CompressingPipe(new ByteArrayInputStream(bytes),
+                                         compressed, format, -1, 100, 2,
+                                         PipeGroup.DEDICATED);
+            p.start();
+            p.joinOrThrow();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Pipe q = new DecompressingPipe(
+                new ByteArrayInputStream(compressed.toByteArray()), out, format);
+            q.start();
+            q.joinOrThrow();
+            assertArrayEquals(bytes, out.toByteArray());
+        }
+    }
+
+    /**
+     * Tests that compressing and decompressing pipes finish on a bounded group
+     * without threads to spare for their stages.
+     */
+    @Test(timeout=2000)
+    public void testBoundedGroup() throws Exception {
+        byte[] bytes = RandomStringUtils.random(50000).getBytes("UTF-8");
+        PipeGroup group = PipeGroup.fixed(1);
+        try {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            Pipe p = new CompressingPipe(new ByteArrayInputStream(bytes),
+                                         compressed, CompressionFormat.GZIP,
+                                         -1, 100, 2, group);
+            p.start();
+            p.joinOrThrow();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Pipe q = new DecompressingPipe(
+                new ByteArrayInputStream(compressed.toByteArray()), out,
+                CompressionFormat.GZIP, 10, 2, group);
+            q.start();
+            q.joinOrThrow();
+            assertArrayEquals(bytes, out.toByteArray());
+        }
+        finally {
+            group.shutdown();
+        }
+    }
+
+    /**
+     * Tests that a compressing pipe sync flushes data which has waited too
+     * long, but not before.
+     */
+    @Test(timeout=2000)
+    public void testTimedSyncFlush() throws Exception {
+        PipedOutputStream src = new PipedOutputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompressingPipe p = new CompressingPipe(new PipedInputStream(src), out,
+                                                CompressionFormat.GZIP);
+        p.setSyncFlush(1 << 20, 100);
+        p.start();
+        src.write("hello".getBytes("UTF-8"));
+        src.flush();
+        Thread.sleep(50);
+        int header = 10;
+        assertEquals(header, out.size());
+        while (out.size() == header) {
+            Thread.sleep(5);
+        }
+        src.close();
+        p.joinOrThrow();
+        GZIPInputStream gz =
+            new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals("hello", IOUtils.toString(gz, "UTF-8"));
+    }
+
+    /**
+     * Tests that a truncated compressed stream makes a decompressing pipe
+     * fail.
+     */
+    @Test(timeout=2000)
+    public void testTruncatedInput() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        Pipe p = new CompressingPipe(IOUtils.toInputStream("hello", "UTF-8"),
+                                     compressed, CompressionFormat.DEFLATE);
+        p.start();
+        p.joinOrThrow();
+        byte[] truncated = compressed.toByteArray();
+        truncated = java.util.Arrays.copyOf(truncated, truncated.length - 3);
+        Pipe q = new DecompressingPipe(new ByteArrayInputStream(truncated),
+                                       new ByteArrayOutputStream(),
+                                       CompressionFormat.DEFLATE);
+        q.start();
+        q.join();
+        assertNotNull(q.getFailure());
+    }
+
+    /**
+     * Tests that every member of a multi-member gzip stream is decompressed,
+     * also when the next member starts in a later chunk or arrives late.
+     */
+    @Test(timeout=2000)
+    public void testMultiMemberGzip() throws Exception {
+        byte[] first = gzip("hello, ");
+        byte[] second = gzip("world");
+        byte[] both = new byte[first.length + second.length];
+        System.arraycopy(first, 0, both, 0, first.length);
+        System.arraycopy(second, 0, both, first.length, second.length);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Pipe p = new DecompressingPipe(new ByteArrayInputStream(both), out,
+                                       CompressionFormat.GZIP, first.length,
+                                       4, PipeGroup.DEDICATED);
+        p.start();
+        p.joinOrThrow();
+        assertEquals("hello, world", out.toString("UTF-8"));
+
+        PipedOutputStream sink = new PipedOutputStream();
+        PipedInputStream source = new PipedInputStream(sink);
+        out = new ByteArrayOutputStream();
+        p = new DecompressingPipe(source, out, CompressionFormat.GZIP);
+        p.start();
+        sink.write(first);
+        sink.flush();
+        Thread.sleep(100);
+        sink.write(second);
+        sink.close();
+        p.joinOrThrow();
+        assertEquals("hello, world", out.toString("UTF-8"));
+    }
+
+    private static byte[] gzip(String s) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gz = new GZIPOutputStream(bytes);
+        gz.write(s.getBytes("UTF-8"));
+        gz.close();
+        return bytes.toByteArray();
+    }
+}
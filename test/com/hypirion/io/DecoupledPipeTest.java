@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+
+package com.hypirion.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.lang3.RandomStringUtils;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DecoupledPipeTest {
+
+    /**
+     * Tests that a decoupled pipe transfers data unchanged through a small
+     * queue, and releases all its buffers when done.
+     */
+    @Test(timeout=2000)
+    public void testTransfer() throws Exception {
+        byte[] bytes = RandomStringUtils.random(100000).getBytes("UTF-8");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BufferPool pool = new BufferPool();
+        DecoupledPipe p = new DecoupledPipe(new ByteArrayInputStream(bytes),
+                                            out, 100, 2, PipeGroup.DEDICATED,
+                                            pool);
+        p.start();
+        p.joinOrThrow();
+        assertArrayEquals(bytes, out.toByteArray());
+        assertEquals(0, p.getQueued());
+        assertEquals(2, p.getQueueDepth());
+        assertTrue(p.getPeakQueued() <= 2);
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    /**
+     * Tests that decoupled pipes in a bounded group finish even if the group
+     * has no threads to spare for their writers.
+     */
+    @Test(timeout=2000)
+    public void testBoundedGroup() throws Exception {
+        byte[] bytes = RandomStringUtils.random(100000).getBytes("UTF-8");
+        PipeGroup group = PipeGroup.fixed(1);
+        try {
+            ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+            ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+            DecoupledPipe p1 =
+                new DecoupledPipe(new ByteArrayInputStream(bytes), out1, 100,
+                                  2, group, BufferPool.shared());
+            DecoupledPipe p2 =
+                new DecoupledPipe(new ByteArrayInputStream(bytes), out2, 100,
+                                  2, group, BufferPool.shared());
+            p1.start();
+            p2.start();
+            p1.joinOrThrow();
+            p2.joinOrThrow();
+            assertArrayEquals(bytes, out1.toByteArray());
+            assertArrayEquals(bytes, out2.toByteArray());
+        }
+        finally {
+            group.shutdown();
+        }
+    }
+
+    /**
+     * Tests that a decoupled pipe keeps reading while its output stream is
+     * blocked, until the queue is full.
+     */
+    @Test(timeout=2000)
+    public void testSlowSink() throws Exception {
+        byte[] bytes = RandomStringUtils.randomAlphanumeric(1000).getBytes("UTF-8");
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream slow = new OutputStream() {
+                @Override
+                public void write(int b) {
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len)
+                    throws IOException {
+                    try {
+                        blocked.await();
+                    }
+                    catch (InterruptedException ie) {
+                        throw new InterruptedIOException();
+                    }
+                    out.write(b, off, len);
+                }
+            };
+        int chunks = (bytes.length + 99) / 100;
+        DecoupledPipe p = new DecoupledPipe(new ByteArrayInputStream(bytes),
+                                            slow, 100, 32);
+        p.start();
+        // All but the chunk being written are queued.
+        while (p.getQueued() < chunks - 1) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, out.size());
+        blocked.countDown();
+        p.joinOrThrow();
+        assertArrayEquals(bytes, out.toByteArray());
+        assertTrue(p.getPeakQueued() >= chunks - 1);
+    }
+
+    /**
+     * Tests that an exception thrown by the output stream makes the pipe
+     * fail, and that the pipe still finishes.
+     */
+    @Test(timeout=2000)
+    public void testFailingSink() throws Exception {
+        byte[] bytes = new byte[10000];
+        final IOException e = new IOException("sink failed");
+        OutputStream out = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    throw e;
+                }
+            };
+        DecoupledPipe p = new DecoupledPipe(new ByteArrayInputStream(bytes),
+                                            out, 100, 1);
+        p.start();
+        p.join();
+        assertSame(e, p.getFailure());
+    }
+}
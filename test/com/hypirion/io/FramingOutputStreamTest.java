@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class FramingOutputStreamTest {
+
+    /**
+     * Tests that lines spanning multiple writes are reassembled, that carriage
+     * returns are stripped and that the last line without a terminator is
+     * handed over on close.
+     */
+    @Test(timeout=1000)
+    public void testLines() throws Exception {
+        Collector c = new Collector();
+        FramingOutputStream out = FramingOutputStream.lines(c, 100);
+        out.write("hel".getBytes("UTF-8"));
+        out.write("lo\r\nwor".getBytes("UTF-8"));
+        out.write('l');
+        out.write("d\n\nlast".getBytes("UTF-8"));
+        assertEquals(3, c.records.size());
+        out.close();
+        assertArrayEquals(new String[] {"hello", "world", "", "last"},
+                          c.records.toArray());
+    }
+
+    /**
+     * Tests that records longer than the maximal record length are split,
+     * both within a single write and across writes.
+     */
+    @Test(timeout=1000)
+    public void testMaxRecordLength() throws Exception {
+        Collector c = new Collector();
+        FramingOutputStream out = new FramingOutputStream(c, (byte) ';', 4);
+        out.write("abcdefghij;kl".getBytes("UTF-8"));
+        out.write("mnopq;abcd;".getBytes("UTF-8"));
+        out.close();
+        assertArrayEquals(new String[] {"abcd", "efgh", "ij", "klmn", "opq",
+                                        "abcd"},
+                          c.records.toArray());
+    }
+
+    /**
+     * Tests that a line split at the maximal line length right before its
+     * <code>"\r\n"</code> terminator does not leave an empty line behind,
+     * whether the terminator arrives in the same write or in later ones.
+     */
+    @Test(timeout=1000)
+    public void testSplitBeforeCRLF() throws Exception {
+        Collector c = new Collector();
+        FramingOutputStream out = FramingOutputStream.lines(c, 4);
+        out.write("abcd\r\nefghijkl\r\n".getBytes("UTF-8"));
+        out.write("mn".getBytes("UTF-8"));
+        out.write("op\r".getBytes("UTF-8"));
+        out.write('\n');
+        out.write("qrs\r".getBytes("UTF-8"));
+        out.write("\n".getBytes("UTF-8"));
+        out.close();
+        assertArrayEquals(new String[] {"abcd", "efgh", "ijkl", "mnop", "qrs"},
+                          c.records.toArray());
+    }
+
+    /**
+     * Tests that a pipe with a framing output stream hands over every line of
+     * its input source, regardless of the pipe's buffer size.
+     */
+    @Test(timeout=1000)
+    public void testPipedLines() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append("line number ").append(i).append('\n');
+        }
+        byte[] bytes = sb.toString().getBytes("UTF-8");
+        Collector c = new Collector();
+        Pipe p = new ClosingPipe(new ByteArrayInputStream(bytes),
+                                 FramingOutputStream.lines(c, 1000), 7);
+        p.start();
+        p.joinOrThrow();
+        assertEquals(500, c.records.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals("line number " + i, c.records.get(i));
+        }
+    }
+
+    static class Collector implements RecordHandler {
+        final List<String> records = new ArrayList<String>();
+
+        @Override
+        public void record(byte[] buf, int off, int len) {
+            records.add(new String(buf, off, len));
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import org.apache.commons.io.IOUtils;
+
+import com.hypirion.io.MergingPipe;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MergingPipeTest {
+
+    private static final int CHAR_COUNT = 300;
+    private static final char[] VALS = "123456789".toCharArray();
+
+    private static String repeat(char c, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static void assertCounts(String out) {
+        for (char v : VALS) {
+            int sum = 0;
+            for (char c : out.toCharArray()) {
+                if (c == v) {
+                    sum++;
+                }
+            }
+            assertEquals(CHAR_COUNT, sum);
+        }
+    }
+
+    /**
+     * Tests that all data from multiple input streams is merged into the
+     * output stream.
+     */
+    @Test(timeout=1000)
+    public void testStreamMerging() throws Exception {
+        InputStream[] in = new InputStream[VALS.length];
+        for (int i = 0; i < in.length; i++) {
+            String s = repeat(VALS[i], CHAR_COUNT);
+            in[i] = new PipeTest.SlowInputStream(IOUtils.toInputStream(s,
+                                                                       "UTF-8"));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Pipe p = new MergingPipe(in, out);
+        p.start();
+        p.join();
+        assertNull(p.getFailure());
+        assertCounts(out.toString("UTF-8"));
+    }
+
+    /**
+     * Tests that a merging pipe between streams finishes on a bounded group
+     * without threads to spare for its stream readers.
+     */
+    @Test(timeout=1000)
+    public void testStreamMergingBoundedGroup() throws Exception {
+        InputStream[] in = new InputStream[VALS.length];
+        for (int i = 0; i < in.length; i++) {
+            in[i] = IOUtils.toInputStream(repeat(VALS[i], CHAR_COUNT), "UTF-8");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PipeGroup group = PipeGroup.fixed(1);
+        try {
+            Pipe p = new MergingPipe(in, out, 64, group);
+            p.start();
+            p.joinOrThrow();
+            assertCounts(out.toString("UTF-8"));
+        }
+        finally {
+            group.shutdown();
+        }
+    }
+
+    /**
+     * Tests that all data from multiple channels is merged into the output
+     * channel, and that chunks are written whole.
+     */
+    @Test(timeout=1000)
+    public void testChannelMerging() throws Exception {
+        ReadableByteChannel[] in = new ReadableByteChannel[VALS.length];
+        java.nio.channels.Pipe[] sources =
+            new java.nio.channels.Pipe[VALS.length];
+        for (int i = 0; i < in.length; i++) {
+            sources[i] = java.nio.channels.Pipe.open();
+            in[i] = sources[i].source();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Pipe p = new MergingPipe(in, Channels.newChannel(out), CHAR_COUNT);
+        p.start();
+        for (int i = 0; i < in.length; i++) {
+            ByteBuffer buf =
+                ByteBuffer.wrap(repeat(VALS[i], CHAR_COUNT).getBytes("UTF-8"));
+            while (buf.hasRemaining()) {
+                sources[i].sink().write(buf);
+            }
+            sources[i].sink().close();
+        }
+        p.join();
+        assertNull(p.getFailure());
+        assertCounts(out.toString("UTF-8"));
+    }
+
+    /**
+     * Tests that a merging pipe between channels can be stopped while it is
+     * waiting for data.
+     */
+    @Test(timeout=1000)
+    public void testStopWhileSelecting() throws Exception {
+        java.nio.channels.Pipe source = java.nio.channels.Pipe.open();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Pipe p = new MergingPipe(new ReadableByteChannel[] {source.source()},
+                                 Channels.newChannel(out));
+        p.start();
+        Thread.sleep(20);
+        p.stop();
+        assertEquals(Pipe.State.FINISHED, p.getState());
+        source.sink().close();
+        source.source().close();
+    }
+
+    /**
+     * Tests that a merging pipe between streams can be paused and resumed
+     * while it is waiting for data, without failing or duplicating data.
+     */
+    @Test(timeout=2000)
+    public void testStreamPauseAndResume() throws Exception {
+        PipedOutputStream sink = new PipedOutputStream();
+        PipedInputStream source = new PipedInputStream(sink);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Pipe p = new MergingPipe(new InputStream[] {source}, out);
+        p.start();
+        sink.write("xyz".getBytes("UTF-8"));
+        sink.flush();
+        while (out.size() < 3) {
+            Thread.sleep(5);
+        }
+        p.pause();
+        assertEquals(Pipe.State.PAUSED, p.getState());
+        p.start();
+        sink.write("abc".getBytes("UTF-8"));
+        sink.close();
+        p.join();
+        assertNull(p.getFailure());
+        assertEquals("xyzabc", out.toString("UTF-8"));
+    }
+
+    /**
+     * Tests that a merging pipe between channels can be paused, resumed and
+     * stopped while it is waiting for data, without writing any chunk twice.
+     */
+    @Test(timeout=2000)
+    public void testChannelPauseAndResume() throws Exception {
+        java.nio.channels.Pipe source = java.nio.channels.Pipe.open();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Pipe p = new MergingPipe(new ReadableByteChannel[] {source.source()},
+                                 Channels.newChannel(out));
+        p.start();
+        source.sink().write(ByteBuffer.wrap("xyz".getBytes("UTF-8")));
+        while (out.size() < 3) {
+            Thread.sleep(5);
+        }
+        p.pause();
+        assertEquals(Pipe.State.PAUSED, p.getState());
+        p.start();
+        Thread.sleep(20);
+        p.stop();
+        assertEquals(Pipe.State.FINISHED, p.getState());
+        assertNull(p.getFailure());
+        assertEquals("xyz", out.toString("UTF-8"));
+        source.sink().close();
+        source.source().close();
+    }
+}
@@ -18,10 +18,16 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.io.StringWriter;
 import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.RandomStringUtils;
@@ -210,6 +216,333 @@ public class PipeTest {
         }
     }
 
+    /**
+     * Test that more pipes than there are threads in a pipe group will all be
+     * completely piped through.
+     */
+    @Test(timeout=1000)
+    public void testBoundedPipeGroup() throws Exception {
+        PipeGroup group = PipeGroup.fixed(2);
+        final int n = 10;
+        String[] inputs = new String[n];
+        ByteArrayOutputStream[] outs = new ByteArrayOutputStream[n];
+        Pipe[] pipes = new Pipe[n];
+        for (int i = 0; i < n; i++) {
+            inputs[i] = RandomStringUtils.random(3708);
+            InputStream in = IOUtils.toInputStream(inputs[i], "UTF-8");
+            outs[i] = new ByteArrayOutputStream();
+            pipes[i] = new Pipe(in, outs[i], Pipe.DEFAULT_BUFFER_SIZE, group);
+        }
+        for (int i = 0; i < n; i++) {
+            pipes[i].start();
+        }
+        for (int i = 0; i < n; i++) {
+            pipes[i].join();
+            assertEquals(inputs[i], outs[i].toString("UTF-8"));
+        }
+        group.shutdown();
+    }
+
+    /**
+     * Test that a pipe can be paused and restarted without losing data.
+     */
+    @Test(timeout=1000)
+    public void testPauseAndRestart() throws Exception {
+        String input = RandomStringUtils.random(3708);
+        InputStream in = new SlowInputStream(IOUtils.toInputStream(input,
+                                                                   "UTF-8"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Pipe p = new Pipe(in, out);
+        for (int i = 0; i < 5; i++) {
+            p.start();
+            Thread.yield();
+            p.pause();
+        }
+        p.start();
+        p.join();
+        assertEquals(input, out.toString("UTF-8"));
+    }
+
+    /**
+     * Stress test which pauses and restarts pipes in rapid succession, both
+     * with and without blocking, and ensures that no data is lost and that no
+     * pause deadlocks.
+     */
+    @Test(timeout=5000)
+    public void testPauseStress() throws Exception {
+        final int n = 8;
+        PipeGroup group = PipeGroup.fixed(3);
+        String[] inputs = new String[n];
+        ByteArrayOutputStream[] outs = new ByteArrayOutputStream[n];
+        Pipe[] pipes = new Pipe[n];
+        for (int i = 0; i < n; i++) {
+            inputs[i] = RandomStringUtils.random(500);
+            InputStream in =
+                new SlowInputStream(IOUtils.toInputStream(inputs[i], "UTF-8"));
+            outs[i] = new ByteArrayOutputStream();
+            pipes[i] = new Pipe(in, outs[i], 16, group);
+        }
+        for (int round = 0; round < 200; round++) {
+            for (int i = 0; i < n; i++) {
+                pipes[i].start();
+            }
+            for (int i = 0; i < n; i++) {
+                pipes[i].pause((round + i) % 2 == 0);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            pipes[i].start();
+        }
+        for (int i = 0; i < n; i++) {
+            pipes[i].join();
+            assertEquals(inputs[i], outs[i].toString("UTF-8"));
+        }
+        group.shutdown();
+    }
+
+    /**
+     * Stress test which stops pipes while they are being paused and restarted
+     * by other threads, and ensures that every pipe finishes.
+     */
+    @Test(timeout=5000)
+    public void testStopStress() throws Exception {
+        for (int round = 0; round < 100; round++) {
+            InputStream in = new SlowInputStream(
+                IOUtils.toInputStream(RandomStringUtils.random(1000), "UTF-8"));
+            final Pipe p = new Pipe(in, new ByteArrayOutputStream(), 4);
+            Thread toggler = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            for (int i = 0; i < 50; i++) {
+                                p.start();
+                                p.pause(i % 2 == 0);
+                            }
+                        }
+                        catch (InterruptedException ie) {}
+                    }
+                });
+            p.start();
+            toggler.start();
+            p.stop();
+            toggler.join();
+            assertEquals(Pipe.State.FINISHED, p.getState());
+        }
+    }
+
+    /**
+     * Test that a pipe with the ON_FINISH flush policy only flushes once it has
+     * consumed its input source.
+     */
+    @Test(timeout=1000)
+    public void testFlushOnFinish() throws Exception {
+        String input = RandomStringUtils.random(3708);
+        InputStream in = new SlowInputStream(IOUtils.toInputStream(input,
+                                                                   "UTF-8"));
+        FlushCountingOutputStream out = new FlushCountingOutputStream();
+        Pipe p = new Pipe(in, out);
+        p.setFlushPolicy(FlushPolicy.ON_FINISH);
+        p.start();
+        p.join();
+        assertEquals(input, out.toString("UTF-8"));
+        assertEquals(1, out.flushes);
+    }
+
+    /**
+     * Test that a pipe with a quiet flush policy flushes when its input source
+     * has no more data to give.
+     */
+    @Test(timeout=1000)
+    public void testFlushAfterQuiet() throws Exception {
+        PipedOutputStream src = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(src);
+        FlushCountingOutputStream out = new FlushCountingOutputStream();
+        Pipe p = new Pipe(in, out);
+        p.setFlushPolicy(FlushPolicy.afterQuiet(20));
+        p.start();
+        src.write("hello".getBytes("UTF-8"));
+        src.flush();
+        while (out.flushes == 0) {
+            Thread.sleep(5);
+        }
+        assertEquals("hello", out.toString("UTF-8"));
+        src.close();
+        p.join();
+    }
+
+    /**
+     * Test that a pipe reports how much data it has piped, and that its
+     * statistics can be read through JMX.
+     */
+    @Test(timeout=1000)
+    public void testStats() throws Exception {
+        String input = RandomStringUtils.random(3708);
+        byte[] bytes = input.getBytes("UTF-8");
+        InputStream in = new ByteArrayInputStream(bytes);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Pipe p = new Pipe(in, out);
+        assertEquals(Pipe.State.NEW, p.getState());
+        p.start();
+        p.join();
+        PipeStats stats = p.getStats();
+        assertEquals(Pipe.State.FINISHED, stats.getState());
+        assertEquals(bytes.length, stats.getTransferred());
+        assertTrue(stats.getReads() > 1);
+        assertTrue(stats.getLastActivity() > 0);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.hypirion.io:type=Pipe,name=test");
+        server.registerMBean(p.asMXBean(), name);
+        try {
+            assertEquals((long) bytes.length,
+                         server.getAttribute(name, "Transferred"));
+            assertEquals("FINISHED", server.getAttribute(name, "State"));
+        }
+        finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    /**
+     * Test that a pipe with a failing output source records the failure,
+     * rethrows it when joined and notifies its listeners.
+     */
+    @Test(timeout=1000)
+    public void testFailure() throws Exception {
+        InputStream in = IOUtils.toInputStream("hello", "UTF-8");
+        final IOException boom = new IOException("boom");
+        OutputStream out = new OutputStream() {
+                public void write(int b) throws IOException {
+                    throw boom;
+                }
+            };
+        final Throwable[] notified = new Throwable[1];
+        Pipe p = new Pipe(in, out);
+        p.addListener(new PipeListener() {
+                public void pipeFinished(Pipe pipe, Throwable failure) {
+                    notified[0] = failure;
+                }
+            });
+        p.start();
+        try {
+            p.joinOrThrow();
+            fail("Expected joinOrThrow to throw");
+        }
+        catch (IOException ioe) {
+            assertSame(boom, ioe);
+        }
+        assertSame(boom, p.getFailure());
+        assertSame(boom, notified[0]);
+    }
+
+    /**
+     * Test that an adaptive pipe grows its buffer when reads fill it, and
+     * shrinks it when reads are small, without corrupting the piped data.
+     */
+    @Test(timeout=1000)
+    public void testAdaptiveBufferSize() throws Exception {
+        byte[] bytes = RandomStringUtils.random(1 << 17).getBytes("UTF-8");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Pipe p = new Pipe(new ByteArrayInputStream(bytes), out);
+        assertEquals(Pipe.DEFAULT_BUFFER_SIZE, p.getBufferSize());
+        p.setAdaptiveBufferSize(256, 8192);
+        p.start();
+        p.join();
+        assertArrayEquals(bytes, out.toByteArray());
+        assertEquals(8192, p.getBufferSize());
+        assertEquals(8192, p.getStats().getBufferSize());
+
+        out = new ByteArrayOutputStream();
+        InputStream trickle = new ByteArrayInputStream(bytes, 0, 4096) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    return super.read(b, off, Math.min(len, 16));
+                }
+            };
+        p = new Pipe(trickle, out);
+        p.setAdaptiveBufferSize(100, 4096);
+        p.start();
+        p.join();
+        assertEquals(4096, out.size());
+        assertEquals(128, p.getBufferSize());
+    }
+
+    /**
+     * Test that an adaptive pipe with a buffer size which is not a power of two
+     * never grows or shrinks its buffer beyond the given bounds.
+     */
+    @Test(timeout=1000)
+    public void testAdaptiveBufferBounds() throws Exception {
+        byte[] bytes = RandomStringUtils.random(1 << 16).getBytes("UTF-8");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final int[] largest = new int[1];
+        InputStream in = new ByteArrayInputStream(bytes) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    largest[0] = Math.max(largest[0], len);
+                    return super.read(b, off, len);
+                }
+            };
+        Pipe p = new Pipe(in, out, 3000);
+        p.setAdaptiveBufferSize(1024, 4096);
+        p.start();
+        p.join();
+        assertArrayEquals(bytes, out.toByteArray());
+        assertEquals(4096, p.getBufferSize());
+        assertEquals(4096, largest[0]);
+
+        out = new ByteArrayOutputStream();
+        InputStream trickle = new ByteArrayInputStream(bytes, 0, 4096) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    return super.read(b, off, Math.min(len, 16));
+                }
+            };
+        p = new Pipe(trickle, out, 3000);
+        p.setAdaptiveBufferSize(1024, 4096);
+        p.start();
+        p.join();
+        assertEquals(4096, out.size());
+        assertEquals(1024, p.getBufferSize());
+    }
+
+    /**
+     * Test that throttled pipes sharing a throttle share its rate, and that the
+     * throttle reports the rate it has observed.
+     */
+    @Test(timeout=2000)
+    public void testSharedThrottle() throws Exception {
+        Throttle throttle = new Throttle(20000, 1000);
+        byte[] bytes = RandomStringUtils.random(5000).getBytes("UTF-8");
+        Pipe[] pipes = new Pipe[2];
+        ByteArrayOutputStream[] outs = new ByteArrayOutputStream[2];
+        long start = System.nanoTime();
+        for (int i = 0; i < pipes.length; i++) {
+            outs[i] = new ByteArrayOutputStream();
+            pipes[i] = new Pipe(new ByteArrayInputStream(bytes), outs[i], 500);
+            pipes[i].setThrottle(throttle);
+            pipes[i].start();
+        }
+        for (int i = 0; i < pipes.length; i++) {
+            pipes[i].join();
+            assertArrayEquals(bytes, outs[i].toByteArray());
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        // The first 1000 bytes are free, the rest is paid for.
+        long expected = (2 * bytes.length - 1000) * 1000L / 20000;
+        assertTrue("Took " + millis + "ms", millis >= expected * 9 / 10);
+        double rate = throttle.getObservedRate();
+        assertTrue("Observed " + rate, 10000 < rate && rate < 40000);
+    }
+
+    static class FlushCountingOutputStream extends ByteArrayOutputStream {
+        volatile int flushes;
+
+        @Override
+        public synchronized void flush() {
+            flushes++;
+        }
+    }
+
     static class SlowInputStream extends InputStream {
         final InputStream is;
 
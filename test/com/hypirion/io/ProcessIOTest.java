@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ProcessIOTest {
+
+    /**
+     * Tests that input is piped to a process, and that its output and error
+     * are piped to separate output streams.
+     */
+    @Test(timeout=5000)
+    public void testPipedStreams() throws Exception {
+        ProcessIO io = new ProcessIO(
+            new ProcessBuilder("sh", "-c", "cat; echo oops >&2; exit 3"));
+        InputStream in = IOUtils.toInputStream("hello\nworld\n", "UTF-8");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        io.setInput(in);
+        io.setOutput(out);
+        io.setError(err);
+        io.start();
+        assertEquals(3, io.awaitCompletion());
+        assertEquals("hello\nworld\n", out.toString("UTF-8"));
+        assertEquals("oops\n", err.toString("UTF-8"));
+    }
+
+    /**
+     * Tests that output and error sent to the same stream are merged, and that
+     * a process without input gets an empty input.
+     */
+    @Test(timeout=5000)
+    public void testMergedOutput() throws Exception {
+        ProcessIO io = new ProcessIO(
+            new ProcessBuilder("sh", "-c", "cat; echo a; echo b >&2"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        io.setOutput(out);
+        io.setError(out);
+        io.start();
+        assertEquals(0, io.awaitCompletion());
+        assertEquals("a\nb\n", out.toString("UTF-8"));
+    }
+
+    /**
+     * Tests that files are redirected directly, without piping.
+     */
+    @Test(timeout=5000)
+    public void testFileRedirects() throws Exception {
+        File input = File.createTempFile("processio", ".in");
+        File output = File.createTempFile("processio", ".out");
+        try {
+            FileUtils.writeStringToFile(input, "from a file\n", "UTF-8");
+            ProcessIO io = new ProcessIO(new ProcessBuilder("cat"));
+            io.setInput(input);
+            io.setOutput(output);
+            io.start();
+            assertEquals(0, io.awaitCompletion());
+            assertEquals("from a file\n",
+                         FileUtils.readFileToString(output, "UTF-8"));
+        }
+        finally {
+            input.delete();
+            output.delete();
+        }
+    }
+
+    /**
+     * Tests that the input pipe stops reading from its input source once the
+     * process has exited, so that later reads get the data instead.
+     */
+    @Test(timeout=5000)
+    public void testInputAfterExit() throws Exception {
+        PipedOutputStream sink = new PipedOutputStream();
+        RevivableInputStream in =
+            new RevivableInputStream(new PipedInputStream(sink));
+        ProcessIO io = new ProcessIO(
+            new ProcessBuilder("sh", "-c", "read line; echo $line"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        io.setInput(in);
+        io.setOutput(out);
+        io.start();
+        sink.write("first\n".getBytes("UTF-8"));
+        sink.flush();
+        assertEquals(0, io.awaitCompletion());
+        assertEquals("first\n", out.toString("UTF-8"));
+        sink.write("second".getBytes("UTF-8"));
+        sink.close();
+        assertEquals("second", IOUtils.toString(in, "UTF-8"));
+    }
+
+    /**
+     * Tests that waiting for a process does not wait for an input pipe which
+     * is blocked on an input stream that can't be killed.
+     */
+    @Test(timeout=5000)
+    public void testBlockedPlainInput() throws Exception {
+        PipedOutputStream sink = new PipedOutputStream();
+        ProcessIO io = new ProcessIO(new ProcessBuilder("true"));
+        io.setInput(new PipedInputStream(sink));
+        io.start();
+        assertEquals(0, io.awaitCompletion());
+        sink.close();
+    }
+}
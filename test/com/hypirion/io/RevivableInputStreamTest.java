@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.RandomStringUtils;
+
+import com.hypirion.io.RevivableInputStream;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RevivableInputStreamTest {
+
+    /**
+     * Tests that all data from the underlying stream is read, even if the
+     * buffer is smaller than the data.
+     */
+    @Test(timeout=1000)
+    public void testBasicReading() throws Exception {
+        String input = RandomStringUtils.random(10033);
+        InputStream is = IOUtils.toInputStream(input, "UTF-8");
+        RevivableInputStream in = new RevivableInputStream(is, 100);
+        String output = IOUtils.toString(in, "UTF-8");
+        in.close();
+        assertEquals(input, output);
+    }
+
+    /**
+     * Tests that single byte reads return values in the range 0 to 255.
+     */
+    @Test(timeout=1000)
+    public void testSingleByteReads() throws Exception {
+        byte[] input = new byte[256];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (byte) i;
+        }
+        RevivableInputStream in =
+            new RevivableInputStream(new ByteArrayInputStream(input), 7);
+        for (int i = 0; i < input.length; i++) {
+            assertEquals(i, in.read());
+        }
+        assertEquals(-1, in.read());
+        in.close();
+    }
+
+    /**
+     * Tests that a killed stream returns -1 while blocking, and that data
+     * arriving while killed is available after resurrection.
+     */
+    @Test(timeout=1000)
+    public void testKillAndResurrect() throws Exception {
+        PipedOutputStream src = new PipedOutputStream();
+        final RevivableInputStream in =
+            new RevivableInputStream(new PipedInputStream(src));
+        final int[] result = new int[1];
+        Thread t = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        result[0] = in.read();
+                    }
+                    catch (Exception e) {
+                        result[0] = -2;
+                    }
+                }
+            });
+        t.start();
+        Thread.sleep(20);
+        in.kill();
+        t.join();
+        assertEquals(-1, result[0]);
+        src.write(42);
+        src.flush();
+        in.resurrect();
+        assertEquals(42, in.read());
+        src.close();
+        assertEquals(-1, in.read());
+    }
+
+    /**
+     * Tests that a stream in read-ahead mode buffers data without being asked
+     * to, reports it through available, and keeps it when killed.
+     */
+    @Test(timeout=1000)
+    public void testReadAhead() throws Exception {
+        PipedOutputStream src = new PipedOutputStream();
+        RevivableInputStream in =
+            new RevivableInputStream(new PipedInputStream(src), 16, true);
+        src.write("hello".getBytes("UTF-8"));
+        src.flush();
+        while (in.available() < 5) {
+            Thread.sleep(5);
+        }
+        in.kill();
+        assertEquals(0, in.available());
+        assertEquals(-1, in.read());
+        in.resurrect();
+        assertEquals(5, in.available());
+        byte[] buf = new byte[16];
+        assertEquals(5, in.read(buf));
+        assertEquals("hello", new String(buf, 0, 5, "UTF-8"));
+        src.close();
+        assertEquals(-1, in.read());
+    }
+
+    /**
+     * Tests that timed reads return 0 when they time out, that data arriving
+     * afterwards is not lost, and that the default timeout makes plain reads
+     * throw.
+     */
+    @Test(timeout=1000)
+    public void testTimedReads() throws Exception {
+        PipedOutputStream src = new PipedOutputStream();
+        RevivableInputStream in =
+            new RevivableInputStream(new PipedInputStream(src));
+        byte[] buf = new byte[10];
+        assertEquals(0, in.read(buf, 0, buf.length, 0, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        assertEquals(0, in.read(buf, 0, buf.length, 50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= 50000000L);
+
+        src.write(42);
+        src.flush();
+        assertEquals(1, in.read(buf, 0, buf.length, 1, TimeUnit.SECONDS));
+        assertEquals(42, buf[0]);
+
+        in.setDefaultTimeout(20, TimeUnit.MILLISECONDS);
+        assertEquals(20, in.getDefaultTimeout(TimeUnit.MILLISECONDS));
+        try {
+            in.read();
+            fail("Expected read to time out");
+        }
+        catch (SocketTimeoutException ste) {
+            // Expected
+        }
+        in.kill();
+        assertEquals(-1, in.read(buf, 0, buf.length, 1, TimeUnit.SECONDS));
+        in.resurrect();
+        src.write(7);
+        src.close();
+        assertEquals(7, in.read());
+        assertEquals(-1, in.read());
+        in.close();
+    }
+}
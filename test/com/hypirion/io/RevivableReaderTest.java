@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.RandomStringUtils;
+
+import com.hypirion.io.RevivableReader;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RevivableReaderTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Tests that random characters are decoded correctly, even with a buffer
+     * too small to hold many characters.
+     */
+    @Test(timeout=1000)
+    public void testBasicDecoding() throws Exception {
+        String input = RandomStringUtils.random(4023);
+        InputStream is = IOUtils.toInputStream(input, "UTF-8");
+        RevivableReader rdr = new RevivableReader(is, UTF8, 5);
+        StringWriter wrt = new StringWriter();
+        Pipe p = new Pipe(rdr, wrt, 1);
+        p.start();
+        p.join();
+        rdr.close();
+        assertEquals(input, wrt.toString());
+    }
+
+    /**
+     * Tests that killing the reader in the middle of a multibyte character
+     * doesn't lose any part of it.
+     */
+    @Test(timeout=1000)
+    public void testKillWithinCharacter() throws Exception {
+        byte[] euro = "\u20ac".getBytes("UTF-8");
+        PipedOutputStream src = new PipedOutputStream();
+        RevivableReader rdr =
+            new RevivableReader(new PipedInputStream(src), UTF8);
+        src.write(euro, 0, 1);
+        src.flush();
+        Thread.sleep(20);
+        rdr.kill();
+        assertEquals(-1, rdr.read());
+        src.write(euro, 1, euro.length - 1);
+        src.close();
+        rdr.resurrect();
+        assertEquals('\u20ac', rdr.read());
+        assertEquals(-1, rdr.read());
+    }
+
+    /**
+     * Tests that a reader over a revivable input stream reads from the stream
+     * directly, so that killing the stream kills the reader and bytes left
+     * in the stream are not taken by the reader.
+     */
+    @Test(timeout=1000)
+    public void testRevivableInput() throws Exception {
+        PipedOutputStream src = new PipedOutputStream();
+        RevivableInputStream in =
+            new RevivableInputStream(new PipedInputStream(src));
+        RevivableReader rdr = new RevivableReader(in, UTF8);
+        src.write('a');
+        src.flush();
+        assertEquals('a', rdr.read());
+        in.kill();
+        assertEquals(-1, rdr.read());
+        in.resurrect();
+        src.write('b');
+        src.flush();
+        assertEquals('b', rdr.read());
+        src.write('c');
+        src.close();
+        assertEquals('c', in.read());
+        assertEquals(-1, rdr.read());
+    }
+}
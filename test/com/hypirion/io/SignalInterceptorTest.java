@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import sun.misc.Signal;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SignalInterceptorTest {
+
+    /**
+     * Tests that asynchronous listeners are notified of every raised signal,
+     * possibly coalesced, on the dispatcher thread.
+     */
+    @Test(timeout=1000)
+    public void testAsyncListener() throws Exception {
+        final AtomicInteger total = new AtomicInteger();
+        final Thread[] notifier = new Thread[1];
+        SignalInterceptor.registerAsync("WINCH", new SignalListener() {
+                public void signalRaised(String signame, int count) {
+                    notifier[0] = Thread.currentThread();
+                    total.addAndGet(count);
+                }
+            });
+        for (int i = 0; i < 5; i++) {
+            Signal.raise(new Signal("WINCH"));
+        }
+        while (total.get() < 5) {
+            Thread.sleep(5);
+        }
+        assertEquals(5, total.get());
+        assertEquals("SignalDispatcher", notifier[0].getName());
+    }
+
+    /**
+     * Tests that handlers are called with the most recently registered first,
+     * that returning false stops the chain and that unregistered handlers are
+     * no longer called.
+     */
+    @Test(timeout=1000)
+    public void testChainAndUnregister() throws Exception {
+        final List<String> calls = new ArrayList<String>();
+        final CountDownLatch[] done = {new CountDownLatch(1)};
+        SignalInterceptor.register("WINCH", new Callable<Boolean>() {
+                public Boolean call() {
+                    calls.add("first");
+                    done[0].countDown();
+                    return true;
+                }
+            });
+        SignalRegistration stopper =
+            SignalInterceptor.register("WINCH", new Callable<Boolean>() {
+                    public Boolean call() {
+                        calls.add("stopper");
+                        done[0].countDown();
+                        return false;
+                    }
+                });
+        SignalRegistration last =
+            SignalInterceptor.register("WINCH", new Callable<Boolean>() {
+                    public Boolean call() {
+                        calls.add("last");
+                        return true;
+                    }
+                });
+        assertEquals("WINCH", last.getSigname());
+
+        Signal.raise(new Signal("WINCH"));
+        done[0].await();
+        assertEquals("[last, stopper]", calls.toString());
+        calls.clear();
+
+        done[0] = new CountDownLatch(1);
+        stopper.unregister();
+        last.unregister();
+        last.unregister();
+        Signal.raise(new Signal("WINCH"));
+        done[0].await();
+        assertEquals("[first]", calls.toString());
+    }
+}
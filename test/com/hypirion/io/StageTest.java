@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class StageTest {
+
+    /**
+     * Tests that the stage sees a flush only after it has taken every chunk
+     * queued before the flush, while chunks and flushes are sent from
+     * different threads at the same time.
+     */
+    @Test(timeout=5000)
+    public void testConcurrentFlushes() throws Exception {
+        final CountingStage stage = new CountingStage();
+        final AtomicReference<String> error = new AtomicReference<String>();
+        Thread flusher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 1; i <= 200; i++) {
+                            long before = stage.written;
+                            stage.flush();
+                            while (stage.flushes < i) {
+                                Thread.yield();
+                            }
+                            if (stage.takenAtFlush < before) {
+                                error.set(String.format(
+                                    "Flush %d seen after %d of %d chunks", i,
+                                    stage.takenAtFlush, before));
+                                return;
+                            }
+                        }
+                    }
+                    catch (IOException ioe) {
+                        error.set(ioe.toString());
+                    }
+                }
+            });
+        // Start the stage before flushing, as flushes are ignored until then.
+        stage.read();
+        stage.write(1);
+        stage.written++;
+        flusher.start();
+        try {
+            while (flusher.isAlive()) {
+                stage.read();
+                stage.write(1);
+                stage.written++;
+                Thread.yield();
+            }
+        }
+        finally {
+            assertNull(stage.finish());
+        }
+        assertNull(error.get());
+    }
+
+    static class CountingStage extends Stage {
+        volatile long written, taken, takenAtFlush, flushes;
+
+        CountingStage() {
+            super(new InputStream() {
+                    @Override
+                    public int read() {
+                        return 0;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) {
+                        return len;
+                    }
+                }, 1, 4, new BufferPool(), PipeGroup.DEDICATED.helpers());
+        }
+
+        @Override
+        void process() {
+            while (true) {
+                // Spin instead of parking, to poll as often as possible.
+                Chunk c = poll();
+                if (c == null) {
+                    continue;
+                }
+                if (c == END) {
+                    return;
+                }
+                if (c == FLUSH) {
+                    takenAtFlush = taken;
+                    flushes++;
+                }
+                else {
+                    taken++;
+                    release(c);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2013 Jean Niklas L'orange. All rights reserved.
+ *
+ * The use and distribution terms for this software are covered by the
+ * Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ * which can be found in the file LICENSE at the root of this distribution.
+ *
+ * By using this software in any fashion, you are agreeing to be bound by
+ * the terms of this license.
+ *
+ * You must not remove this notice, or any other, from this software.
+ */
+
+package com.hypirion.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.RandomStringUtils;
+
+import com.hypirion.io.TeePipe;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TeePipeTest {
+
+    /**
+     * Tests that all sinks receive all data from the input stream.
+     */
+    @Test(timeout=1000)
+    public void testBasicTee() throws Exception {
+        String input = RandomStringUtils.random(3708);
+        InputStream in = IOUtils.toInputStream(input, "UTF-8");
+        TeePipe p = new TeePipe(in);
+        ByteArrayOutputStream[] outs = new ByteArrayOutputStream[3];
+        for (int i = 0; i < outs.length; i++) {
+            outs[i] = new ByteArrayOutputStream();
+            p.addSink(outs[i]);
+        }
+        p.start();
+        p.join();
+        for (ByteArrayOutputStream out : outs) {
+            assertEquals(input, out.toString("UTF-8"));
+        }
+    }
+
+    /**
+     * Tests that a blocked sink with the DISCONNECT policy is disconnected,
+     * while other sinks still receive all data.
+     */
+    @Test(timeout=1000)
+    public void testDisconnect() throws Exception {
+        String input = RandomStringUtils.random(3708);
+        InputStream in = IOUtils.toInputStream(input, "UTF-8");
+        TeePipe p = new TeePipe(in, 16);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TeePipe.Sink good = p.addSink(out);
+        BlockingOutputStream blocker = new BlockingOutputStream();
+        TeePipe.Sink slow = p.addSink(blocker, 2, TeePipe.Overflow.DISCONNECT);
+        p.start();
+        while (slow.isConnected()) {
+            Thread.sleep(1);
+        }
+        blocker.release.countDown();
+        p.join();
+        assertEquals(input, out.toString("UTF-8"));
+        assertTrue(slow.getDropped() > 0);
+        assertNull(good.getFailure());
+    }
+
+    /**
+     * Tests that a blocked sink with the DROP_OLDEST policy drops chunks, but
+     * keeps receiving the newest ones.
+     */
+    @Test(timeout=1000)
+    public void testDropOldest() throws Exception {
+        String input = RandomStringUtils.randomAlphanumeric(3708);
+        InputStream in = IOUtils.toInputStream(input, "UTF-8");
+        TeePipe p = new TeePipe(in, 16);
+        BlockingOutputStream blocker = new BlockingOutputStream();
+        TeePipe.Sink slow = p.addSink(blocker, 2, TeePipe.Overflow.DROP_OLDEST);
+        p.start();
+        while (p.getState() != Pipe.State.STOPPING) {
+            Thread.sleep(1);
+        }
+        blocker.release.countDown();
+        p.join();
+        assertTrue(slow.getDropped() > 0);
+        assertTrue(input.endsWith(blocker.toString("UTF-8").substring(16)));
+    }
+
+    /**
+     * Tests that a tee pipe on a bounded group finishes even if the group has
+     * no threads to spare for the writers of its sinks.
+     */
+    @Test(timeout=1000)
+    public void testBoundedGroup() throws Exception {
+        String input = RandomStringUtils.random(3708);
+        InputStream in = IOUtils.toInputStream(input, "UTF-8");
+        PipeGroup group = PipeGroup.fixed(1);
+        try {
+            TeePipe p = new TeePipe(in, 16, group);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            p.addSink(out, 1, TeePipe.Overflow.BLOCK);
+            p.start();
+            p.joinOrThrow();
+            assertEquals(input, out.toString("UTF-8"));
+        }
+        finally {
+            group.shutdown();
+        }
+    }
+
+    /**
+     * Tests that stopping a tee pipe releases it while it waits for room in
+     * the queue of a blocked sink, and that the chunk is dropped.
+     */
+    @Test(timeout=1000)
+    public void testStopBlockedSink() throws Exception {
+        String input = RandomStringUtils.random(3708);
+        InputStream in = IOUtils.toInputStream(input, "UTF-8");
+        TeePipe p = new TeePipe(in, 16);
+        BlockingOutputStream blocker = new BlockingOutputStream();
+        TeePipe.Sink slow = p.addSink(blocker, 2, TeePipe.Overflow.BLOCK);
+        p.start();
+        while (slow.getQueued() < 2) {
+            Thread.sleep(1);
+        }
+        p.stop(false);
+        while (slow.getDropped() == 0) {
+            Thread.sleep(1);
+        }
+        blocker.release.countDown();
+        p.join();
+        assertEquals(1, slow.getDropped());
+    }
+
+    static class BlockingOutputStream extends ByteArrayOutputStream {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            try {
+                release.await();
+            }
+            catch (InterruptedException ie) {
+                throw new RuntimeException(ie);
+            }
+            super.write(b, off, len);
+        }
+    }
+}